@@ -126,10 +126,45 @@ class JavaProgram:
         self.proc.stdin.write(b"repairAll\n")
         self._wait_command_completion()
 
+    def repair_lost_containers(self):
+        self.proc.stdin.write(b"repairLost\n")
+        self._wait_command_completion()
+
+    def queue_damaged_stripes(self):
+        self.proc.stdin.write(b"queueDamaged\n")
+        self._wait_command_completion()
+
     def repair_file(self, filepath):
         self.proc.stdin.write(("repair %s\n" % filepath).encode())
         self._wait_command_completion()
 
+    def hedging_statistics(self):
+        return self._statistics(b"HedgingStatistics")
+
+    def read_cache_statistics(self):
+        return self._statistics(b"ReadCache ")
+
+    def decoded_stripe_cache_statistics(self):
+        return self._statistics(b"DecodedStripeCache ")
+
+    def repair_statistics(self):
+        return self._statistics(b"RepairStatistics")
+
+    def repair_queue_statistics(self):
+        return self._statistics(b"RepairQueue")
+
+    def _statistics(self, name):
+        self.proc.stdin.write(b"stats\n")
+        self.proc.stdin.flush()
+        # The command prints many lines: all of them are read up to Done, so that the next command reads its own
+        statistics = None
+        line = self.proc.stdout.readline()
+        while line and line != b"Done\n":
+            if statistics is None and line.startswith(name):
+                statistics = line.decode().strip()
+            line = self.proc.stdout.readline()
+        return statistics
+
     def _wait_command_completion(self):
         self.proc.stdout.flush()
         self.proc.stdin.flush()
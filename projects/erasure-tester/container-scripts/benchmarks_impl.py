@@ -191,6 +191,7 @@ class BenchmarksImpl:
 
         start2 = time()
         last_size = -1
+        repairs = []
         for redis_size in (x[0] for x in nodes_trace):
             if redis_size == last_size:
                 sleep(1)
@@ -202,12 +203,14 @@ class BenchmarksImpl:
                 java.flush_read_cache()
                 print("Repairing all files")
                 java.repair_all_files()
+                repairs.append(java.repair_statistics())
             last_size = redis_size
 
         return {
             'start': start1,
             'trace_start': start2,
-            'end': time()
+            'end': time(),
+            'repairs': repairs
         }
 
     def bench_dd(self, config=None, redis=None, java=None, nodes_trace=None, block_count=50):
@@ -3,12 +3,16 @@ package ch.unine.vauchers.erasuretester.erasure;
 import ch.unine.vauchers.erasuretester.utils.Utils;
 import ch.unine.vauchers.erasuretester.backend.MemoryStorageBackend;
 import ch.unine.vauchers.erasuretester.erasure.codes.NullErasureCode;
+import ch.unine.vauchers.erasuretester.erasure.codes.TooManyErasedLocations;
 import org.openjdk.jmh.annotations.*;
 
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.Random;
 
+/**
+ * Run with the gc profiler to check the allocations: gc.alloc.rate.norm of readFile should be about 0 bytes per call.
+ */
 @State(Scope.Thread)
 @BenchmarkMode(Mode.AverageTime)
 public class FileEncoderDecoderBenchmark {
@@ -16,6 +20,7 @@ public class FileEncoderDecoderBenchmark {
     public int fileSize;
 
     private ByteBuffer testContents;
+    private ByteBuffer readBuffer;
     private String randomPath;
 
     protected FileEncoderDecoder sut;
@@ -31,6 +36,11 @@ public class FileEncoderDecoderBenchmark {
         }
 
         sut = new FileEncoderDecoder(new NullErasureCode(10), new MemoryStorageBackend());
+
+        // Mimic FUSE, which hands out direct buffers
+        readBuffer = ByteBuffer.allocateDirect(fileSize);
+        testContents.rewind();
+        sut.writeFile(randomPath, fileSize, 0, testContents);
     }
 
     @Benchmark
@@ -38,4 +48,11 @@ public class FileEncoderDecoderBenchmark {
         testContents.rewind();
         sut.writeFile(randomPath, fileSize, 0, testContents);
     }
+
+    @Benchmark
+    public ByteBuffer readFile() throws TooManyErasedLocations {
+        readBuffer.clear();
+        sut.readFile(randomPath, fileSize, 0, readBuffer);
+        return readBuffer;
+    }
 }
@@ -9,6 +9,7 @@ import ch.unine.vauchers.erasuretester.erasure.SimpleRegeneratingFileEncoderDeco
 import ch.unine.vauchers.erasuretester.erasure.codes.ErasureCode;
 import ch.unine.vauchers.erasuretester.erasure.codes.NullErasureCode;
 import ch.unine.vauchers.erasuretester.erasure.codes.ReedSolomonCode;
+import ch.unine.vauchers.erasuretester.erasure.codes.ReedSolomonMatrixCode;
 import ch.unine.vauchers.erasuretester.erasure.codes.SimpleRegeneratingCode;
 import ch.unine.vauchers.erasuretester.frontend.FuseMemoryFrontend;
 import ch.unine.vauchers.erasuretester.utils.Utils;
@@ -35,7 +36,7 @@ public class Main {
 
         ArgumentParser parser = ArgumentParsers.newArgumentParser("Erasure tester");
         parser.addArgument("-c", "--erasure-code")
-                .choices("Null", "ReedSolomon", "SimpleRegenerating")
+                .choices("Null", "ReedSolomon", "ReedSolomonMatrix", "SimpleRegenerating")
                 .setDefault("Null");
         parser.addArgument("-s", "--storage")
                 .choices("Memory", "Jedis", "Redisson")
@@ -52,6 +53,47 @@ public class Main {
                 .help("Parity size SRC, only used for Simple regenerating code")
                 .type(Integer.TYPE)
                 .setDefault(2);
+        parser.addArgument("-b", "--block-size")
+                .help("Size of each block, in bytes. Use 1 to read files written by older versions")
+                .type(Integer.TYPE)
+                .setDefault(4096);
+        parser.addArgument("--write-back")
+                .help("Buffer the written blocks instead of flushing them after every write")
+                .action(Arguments.storeTrue());
+        parser.addArgument("--flush-delay")
+                .help("In write-back mode, how long a written block may wait before being flushed, in milliseconds")
+                .type(Long.TYPE)
+                .setDefault(1000L);
+        parser.addArgument("--hedge")
+                .help("Hedged reads: how many parity positions to request when data positions are late. 0 to disable")
+                .type(Integer.TYPE)
+                .setDefault(0);
+        parser.addArgument("--hedge-delay")
+                .help("With hedged reads, how long to wait for the data positions before requesting parity positions, in milliseconds")
+                .type(Long.TYPE)
+                .setDefault(10L);
+        parser.addArgument("--cache-size")
+                .help("Capacity of the read cache of the containers, in bytes")
+                .type(Long.TYPE)
+                .setDefault(StorageBackend.DEFAULT_READ_CACHE_CAPACITY);
+        parser.addArgument("--stripe-cache-size")
+                .help("Capacity of the cache of the decoded stripes, in bytes. 0 to disable")
+                .type(Long.TYPE)
+                .setDefault(0L);
+        parser.addArgument("--read-ahead")
+                .help("Maximum amount of contents to prefetch after sequential reads, in bytes. Also bounded by the read cache. 0 to disable")
+                .type(Long.TYPE)
+                .setDefault(8L * 1024 * 1024);
+        parser.addArgument("--repair-threads")
+                .help("How many threads repair stripes at the same time")
+                .type(Integer.TYPE)
+                .setDefault(Runtime.getRuntime().availableProcessors());
+        parser.addArgument("--priority-repair")
+                .help("Repair in the background the damaged stripes found by reads, the most at risk first")
+                .action(Arguments.storeTrue());
+        parser.addArgument("--read-repair")
+                .help("Store back the blocks decoded by degraded reads")
+                .action(Arguments.storeTrue());
         parser.addArgument("--redis-cluster")
                 .help("Flag the Redis server in use as part of a cluster")
                 .action(Arguments.storeTrue());
@@ -83,6 +125,7 @@ public class Main {
         final int stripe = namespace.getInt("stripe");
         final int parity = namespace.getInt("parity");
         final int src = namespace.getInt("src");
+        final int blockSize = namespace.getInt("block_size");
 
         switch (namespace.getString("erasure_code")) {
             case "Null":
@@ -92,6 +135,9 @@ public class Main {
             case "ReedSolomon":
                 erasureCode = new ReedSolomonCode(stripe, parity);
                 break;
+            case "ReedSolomonMatrix":
+                erasureCode = new ReedSolomonMatrixCode(stripe, parity);
+                break;
             case "SimpleRegenerating":
                 erasureCode = new SimpleRegeneratingCode(stripe, parity, src);
                 break;
@@ -111,22 +157,45 @@ public class Main {
                 break;
         }
 
+        storageBackend.setReadCacheCapacity(namespace.getLong("cache_size"));
+
         final FileEncoderDecoder encdec;
         switch (namespace.getString("erasure_code")) {
             case "SimpleRegenerating":
-                encdec = new SimpleRegeneratingFileEncoderDecoder((SimpleRegeneratingCode) erasureCode, storageBackend);
+                encdec = new SimpleRegeneratingFileEncoderDecoder((SimpleRegeneratingCode) erasureCode, storageBackend, blockSize);
                 break;
             default:
-                encdec = new FileEncoderDecoder(erasureCode, storageBackend);
+                encdec = new FileEncoderDecoder(erasureCode, storageBackend, blockSize);
                 break;
         }
 
+        if (namespace.getBoolean("write_back")) {
+            encdec.enableWriteBack(namespace.getLong("flush_delay"));
+        }
+        if (namespace.getLong("stripe_cache_size") > 0) {
+            encdec.enableDecodedStripeCache(namespace.getLong("stripe_cache_size"));
+        }
+        if (namespace.getLong("read_ahead") > 0) {
+            encdec.enableReadAhead(namespace.getLong("read_ahead"));
+        }
+        encdec.setRepairConcurrency(namespace.getInt("repair_threads"));
+        if (namespace.getBoolean("priority_repair")) {
+            encdec.enablePriorityRepair();
+        }
+        if (namespace.getBoolean("read_repair")) {
+            encdec.enableReadRepair();
+        }
+        if (namespace.getInt("hedge") > 0) {
+            encdec.enableHedgedReads(namespace.getInt("hedge"), namespace.getLong("hedge_delay"));
+        }
+
         final FuseMemoryFrontend fuse = new FuseMemoryFrontend(encdec, !namespace.getBoolean("quiet"));
         // Gracefully quit on Ctrl+C
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
                 System.err.println("Gracefully exiting Erasure tester");
                 try {
+                    encdec.close();
                     storageBackend.disconnect();
                     fuse.unmount();
                 } catch (IOException | FuseException e) {
@@ -146,6 +215,23 @@ public class Main {
                     encdec.repairAllFiles();
                 } catch (Exception e) {}
                 System.out.println("Done");
+            } else if ("repairLost".equals(line)) {
+                try {
+                    encdec.repairLostContainers();
+                } catch (Exception e) {}
+                System.out.println("Done");
+            } else if ("queueDamaged".equals(line)) {
+                try {
+                    encdec.queueDamagedStripes();
+                } catch (Exception e) {}
+                System.out.println("Done");
+            } else if ("stats".equals(line)) {
+                System.out.println(encdec.getHedgingStatistics());
+                System.out.println("ReadCache " + storageBackend.getReadCache().getStatistics());
+                System.out.println("DecodedStripeCache " + encdec.getDecodedStripeCacheStatistics());
+                System.out.println(encdec.getRepairStatistics());
+                System.out.println(encdec.getRepairQueue());
+                System.out.println("Done");
             } else if ("clearCache".equals(line)) {
                 try {
                     storageBackend.clearReadCache();
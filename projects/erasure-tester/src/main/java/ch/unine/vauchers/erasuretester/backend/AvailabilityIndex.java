@@ -0,0 +1,151 @@
+package ch.unine.vauchers.erasuretester.backend;
+
+import java.util.BitSet;
+import java.util.function.LongPredicate;
+
+/**
+ * Index of the containers known to be in the key-value store, or known to be missing from it. Thread-safe.
+ * <br/>
+ * Containers are allocated round-robin: the containers of position p have the keys p, p + totalSize,
+ * p + 2 * totalSize, and so on. Each position therefore keeps two dense bitmaps indexed by redisKey / totalSize, one of
+ * the containers known to be available, and one of the containers known to be unavailable. The index of a stripe
+ * holding millions of containers takes a few bits per container. Keys that do not follow that layout are never
+ * indexed.
+ * <br/>
+ * Nothing expires: entries must be invalidated when the key-value store changes behind the backend's back, for
+ * instance when a node is restarted.
+ */
+public class AvailabilityIndex {
+    public enum Availability {
+        AVAILABLE, UNAVAILABLE, UNKNOWN
+    }
+
+    private final int totalSize;
+    private final PositionIndex[] positions;
+
+    /**
+     * Constructor
+     * @param totalSize The total size (stripe size + parity size)
+     */
+    public AvailabilityIndex(int totalSize) {
+        this.totalSize = totalSize;
+        positions = new PositionIndex[totalSize];
+        for (int i = 0; i < totalSize; i++) {
+            positions[i] = new PositionIndex();
+        }
+    }
+
+    /**
+     * @param redisKey The key of a container
+     * @return What is known about the container
+     */
+    public Availability get(long redisKey) {
+        final int slot = slotOf(redisKey);
+        if (slot < 0) {
+            return Availability.UNKNOWN;
+        }
+        return positionOf(redisKey).get(slot);
+    }
+
+    /**
+     * Record whether a container is in the key-value store
+     * @param redisKey The key of the container
+     * @param available Whether the container has been found
+     */
+    public void set(long redisKey, boolean available) {
+        final int slot = slotOf(redisKey);
+        if (slot >= 0) {
+            positionOf(redisKey).set(slot, available);
+        }
+    }
+
+    /**
+     * Forget what is known about a container. It will be looked up again.
+     * @param redisKey The key of the container
+     */
+    public void invalidate(long redisKey) {
+        final int slot = slotOf(redisKey);
+        if (slot >= 0) {
+            positionOf(redisKey).invalidate(slot);
+        }
+    }
+
+    /**
+     * Forget what is known about all the containers of a position, for instance when the node storing them has
+     * been restarted
+     * @param position Position in [0; (stripeSize + paritySize)]
+     */
+    public void invalidatePosition(int position) {
+        positions[position].clear();
+    }
+
+    /**
+     * Record that some of the containers of a position that were available have been lost, for instance because the
+     * node storing them has been replaced by an empty one
+     * @param position Position in [0; (stripeSize + paritySize)]
+     * @param isLost Tells whether a container has been lost, given its key
+     */
+    public void markLost(int position, LongPredicate isLost) {
+        positions[position].markLost(position, isLost);
+    }
+
+    /**
+     * Forget everything
+     */
+    public void clear() {
+        for (PositionIndex position : positions) {
+            position.clear();
+        }
+    }
+
+    /**
+     * @return The index within its position of a container, or -1 if the key cannot be indexed
+     */
+    private int slotOf(long redisKey) {
+        final long slot = redisKey / totalSize;
+        return redisKey < 0 || slot >= Integer.MAX_VALUE ? -1 : (int) slot;
+    }
+
+    private PositionIndex positionOf(long redisKey) {
+        return positions[(int) (redisKey % totalSize)];
+    }
+
+    private final class PositionIndex {
+        private final BitSet available = new BitSet();
+        private final BitSet unavailable = new BitSet();
+
+        private synchronized Availability get(int slot) {
+            if (available.get(slot)) {
+                return Availability.AVAILABLE;
+            } else if (unavailable.get(slot)) {
+                return Availability.UNAVAILABLE;
+            } else {
+                return Availability.UNKNOWN;
+            }
+        }
+
+        private synchronized void set(int slot, boolean isAvailable) {
+            available.set(slot, isAvailable);
+            unavailable.set(slot, !isAvailable);
+        }
+
+        private synchronized void invalidate(int slot) {
+            available.clear(slot);
+            unavailable.clear(slot);
+        }
+
+        private synchronized void markLost(int position, LongPredicate isLost) {
+            for (int slot = available.nextSetBit(0); slot >= 0; slot = available.nextSetBit(slot + 1)) {
+                if (isLost.test((long) slot * totalSize + position)) {
+                    available.clear(slot);
+                    unavailable.set(slot);
+                }
+            }
+        }
+
+        private synchronized void clear() {
+            available.clear();
+            unavailable.clear();
+        }
+    }
+}
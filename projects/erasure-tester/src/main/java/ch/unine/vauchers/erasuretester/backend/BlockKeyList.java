@@ -0,0 +1,179 @@
+package ch.unine.vauchers.erasuretester.backend;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.util.Arrays;
+
+/**
+ * Compact list of the block keys of a file, addressed by stripe and by position in the stripe.
+ * <br/>
+ * The keys given by {@link StorageBackend#storeBlock(byte[], int, int)} to a position are consecutive counters, so the
+ * keys of a position in consecutive stripes mostly follow each other. Each position is therefore stored as a list of
+ * runs: a run starting at stripe s with key k holds the keys k, k+1, k+2... for the stripes s, s+1, s+2... until the
+ * next run. Unwritten blocks ({@link #NO_KEY}) form runs of their own. Random access is a binary search among the runs
+ * of a position.
+ */
+public class BlockKeyList {
+    /**
+     * Key of a block that has never been written
+     */
+    public static final long NO_KEY = -1;
+
+    private final int totalSize;
+    private int nbStripes;
+    /**
+     * First stripe of each run, per position
+     */
+    private final IntArrayList[] runStarts;
+    /**
+     * Key of the first stripe of each run, per position
+     */
+    private final LongArrayList[] runKeys;
+
+    /**
+     * Constructor
+     * @param totalSize The number of keys per stripe (stripe size + parity size)
+     */
+    public BlockKeyList(int totalSize) {
+        this.totalSize = totalSize;
+        runStarts = new IntArrayList[totalSize];
+        runKeys = new LongArrayList[totalSize];
+        for (int i = 0; i < totalSize; i++) {
+            runStarts[i] = new IntArrayList(1);
+            runKeys[i] = new LongArrayList(1);
+        }
+    }
+
+    /**
+     * Get the key of a block
+     * @param stripe The index of the stripe
+     * @param position The position of the block in the stripe
+     * @return The key, or NO_KEY if the block has never been written
+     */
+    public long getKey(int stripe, int position) {
+        if (stripe < 0 || stripe >= nbStripes) {
+            throw new IndexOutOfBoundsException("Stripe " + stripe + " of " + nbStripes);
+        }
+        final IntArrayList starts = runStarts[position];
+        final int run = findRun(starts, stripe);
+        return keyAt(runKeys[position].getLong(run), starts.getInt(run), stripe);
+    }
+
+    /**
+     * Set the key of a block
+     * @param stripe The index of the stripe
+     * @param position The position of the block in the stripe
+     * @param key The new key
+     * @return The previous key
+     */
+    public long setKey(int stripe, int position, long key) {
+        final long oldKey = getKey(stripe, position);
+        if (oldKey == key) {
+            return oldKey;
+        }
+
+        final IntArrayList starts = runStarts[position];
+        final LongArrayList keys = runKeys[position];
+        int run = findRun(starts, stripe);
+        final int runStart = starts.getInt(run);
+        final int runEnd = run + 1 < starts.size() ? starts.getInt(run + 1) : nbStripes;
+
+        // Split the run around the stripe
+        if (stripe + 1 < runEnd) {
+            starts.add(run + 1, stripe + 1);
+            keys.add(run + 1, keyAt(keys.getLong(run), runStart, stripe + 1));
+        }
+        if (stripe > runStart) {
+            run++;
+            starts.add(run, stripe);
+            keys.add(run, key);
+        } else {
+            keys.set(run, key);
+        }
+
+        if (run + 1 < starts.size()) {
+            mergeWithPrevious(position, run + 1);
+        }
+        mergeWithPrevious(position, run);
+        return oldKey;
+    }
+
+    /**
+     * @return The number of stripes of the file
+     */
+    public int getNbStripes() {
+        return nbStripes;
+    }
+
+    /**
+     * Grow or shrink the list. The blocks of added stripes are set to NO_KEY.
+     * @param nbStripes The new number of stripes
+     */
+    public void setNbStripes(int nbStripes) {
+        if (nbStripes < 0) {
+            throw new IllegalArgumentException("Negative number of stripes");
+        }
+        for (int position = 0; position < totalSize; position++) {
+            final IntArrayList starts = runStarts[position];
+            final LongArrayList keys = runKeys[position];
+            if (nbStripes > this.nbStripes) {
+                starts.add(this.nbStripes);
+                keys.add(NO_KEY);
+                mergeWithPrevious(position, starts.size() - 1);
+            } else {
+                int nbRuns = starts.size();
+                while (nbRuns > 0 && starts.getInt(nbRuns - 1) >= nbStripes) {
+                    nbRuns--;
+                }
+                starts.size(nbRuns);
+                keys.size(nbRuns);
+            }
+        }
+        this.nbStripes = nbStripes;
+    }
+
+    /**
+     * @return The number of keys per stripe
+     */
+    public int getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * Count the runs held by this list. Each run takes an int and a long in memory.
+     * @return The number of runs, across all positions
+     */
+    public int countRuns() {
+        int runs = 0;
+        for (IntArrayList starts : runStarts) {
+            runs += starts.size();
+        }
+        return runs;
+    }
+
+    /**
+     * Remove a run if it is the continuation of the previous one
+     */
+    private void mergeWithPrevious(int position, int run) {
+        final IntArrayList starts = runStarts[position];
+        final LongArrayList keys = runKeys[position];
+        if (run > 0 && keyAt(keys.getLong(run - 1), starts.getInt(run - 1), starts.getInt(run)) == keys.getLong(run)) {
+            starts.removeInt(run);
+            keys.removeLong(run);
+        }
+    }
+
+    /**
+     * Find the run containing a stripe
+     * @return The index of the last run starting at or before the stripe
+     */
+    private static int findRun(IntArrayList starts, int stripe) {
+        final int index = Arrays.binarySearch(starts.elements(), 0, starts.size(), stripe);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private static long keyAt(long runKey, int runStart, int stripe) {
+        return runKey == NO_KEY ? NO_KEY : runKey + (stripe - runStart);
+    }
+}
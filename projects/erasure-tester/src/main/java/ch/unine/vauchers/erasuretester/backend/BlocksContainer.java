@@ -1,6 +1,5 @@
 package ch.unine.vauchers.erasuretester.backend;
 
-import it.unimi.dsi.fastutil.ints.IntArrayList;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
@@ -8,76 +7,159 @@ import java.util.Base64;
 
 /**
  * Container for many blocks that will be stored in the key-value store.
- * Has a fixed size.
+ * Has a fixed size. Each block is a chunk of blockSize bytes, stored contiguously as raw bytes.
+ * <br/>
+ * Serialized format: <pre>[format version (byte)][block size (int)][buffer size (int)][number of blocks (int)][blocks]</pre>
+ * Containers written before the introduction of the block size start directly with the buffer size, followed by one
+ * int per block. Their first byte is always 0, as the buffer size is far below 2^24. They are still readable, as
+ * containers of 1-byte blocks. The oldest ones were stored as Base64 text, whose first byte is neither 0 nor a format
+ * version: they are decoded first.
  */
 public class BlocksContainer implements Serializable {
-    private IntArrayList blocks;
+    /**
+     * Version of the serialized format. Never 0, so that legacy containers can be recognized.
+     */
+    public static final byte FORMAT_VERSION = 1;
+
+    private final byte[] blocks;
     private final int bufferSize;
+    private final int blockSize;
+    private int size;
 
     /**
      * Constructor
      * @param bufferSize The amount of blocks that can be stored. Check isFull.
+     * @param blockSize The size of each block, in bytes
      */
-    public BlocksContainer(int bufferSize) {
-        this.bufferSize = bufferSize;
-        blocks = new IntArrayList(bufferSize);
+    public BlocksContainer(int bufferSize, int blockSize) {
+        this(bufferSize, blockSize, new byte[bufferSize * blockSize], 0);
     }
 
-    private BlocksContainer(int bufferSize, IntArrayList blocks) {
+    private BlocksContainer(int bufferSize, int blockSize, byte[] blocks, int size) {
         this.bufferSize = bufferSize;
+        this.blockSize = blockSize;
         this.blocks = blocks;
+        this.size = size;
+    }
+
+    /**
+     * Copy a block into a buffer
+     * @param key The index of the block in this container
+     * @param dest The buffer to copy the block to
+     * @param offset Where to copy the block in dest
+     */
+    public void get(int key, byte[] dest, int offset) {
+        if (key < 0 || key >= size) {
+            throw new IndexOutOfBoundsException("Block " + key + " of " + size);
+        }
+        System.arraycopy(blocks, key * blockSize, dest, offset, blockSize);
     }
 
+    /**
+     * Get the first byte of a block. Convenient when the blocks are 1 byte long.
+     * @param key The index of the block in this container
+     * @return The byte, as an unsigned value
+     */
     public int get(int key) {
-        return blocks.getInt(key);
+        if (key < 0 || key >= size) {
+            throw new IndexOutOfBoundsException("Block " + key + " of " + size);
+        }
+        return Byte.toUnsignedInt(blocks[key * blockSize]);
     }
 
-    public void put(int blockData) {
-        blocks.add(blockData);
+    /**
+     * Append a block to this container
+     * @param src The buffer containing the block
+     * @param offset Where the block starts in src
+     */
+    public void put(byte[] src, int offset) {
+        System.arraycopy(src, offset, blocks, size * blockSize, blockSize);
+        size++;
     }
 
     public boolean isFull() {
-        return blocks.size() == bufferSize;
+        return size == bufferSize;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
     }
 
-    public static BlocksContainer fromString(String serialize) {
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return The approximate memory used by this container, in bytes
+     */
+    public int getMemorySize() {
+        return blocks.length + 32;
+    }
+
+    /**
+     * Deserialize a container, in the current format or in a legacy one
+     * @param bytes The serialized container
+     * @return The container
+     * @throws IllegalArgumentException If the bytes are not a serialized container
+     * @throws UncheckedIOException If the bytes are truncated
+     */
+    public static BlocksContainer fromBytes(byte[] bytes) {
+        if (bytes.length == 0) {
+            throw new IllegalArgumentException("Empty container");
+        }
+        if (bytes[0] != 0 && bytes[0] != FORMAT_VERSION) {
+            // Legacy containers were stored as Base64 text
+            final byte[] decoded = Base64.getDecoder().decode(bytes);
+            if (decoded.length == 0 || decoded[0] != 0) {
+                throw new IllegalArgumentException("Unknown container format " + bytes[0]);
+            }
+            return fromBytes(decoded);
+        }
+
         try {
-            byte[] bytes = Base64.getDecoder().decode(serialize);
-            ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-            DataInputStream dis = new DataInputStream(bais);
-            int bufferSize = dis.readInt();
-
-            int elementsLength = dis.readInt();
-            final IntArrayList blocks = new IntArrayList(bufferSize);
-            for (int i = 0; i < elementsLength; i++) {
-                blocks.add(dis.readInt());
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (bytes[0] == 0) {
+                return fromLegacyFormat(dis);
             }
 
-            return new BlocksContainer(bufferSize, blocks);
+            dis.readByte();
+            final int blockSize = dis.readInt();
+            final int bufferSize = dis.readInt();
+            final int size = dis.readInt();
+            final byte[] blocks = new byte[bufferSize * blockSize];
+            dis.readFully(blocks, 0, size * blockSize);
+
+            return new BlocksContainer(bufferSize, blockSize, blocks, size);
         } catch (IOException e) {
-            e.printStackTrace();
-            return null;
+            throw new UncheckedIOException(e);
         }
     }
 
-    public static String toString(@NotNull BlocksContainer container) {
+    private static BlocksContainer fromLegacyFormat(DataInputStream dis) throws IOException {
+        final int bufferSize = dis.readInt();
+        final int size = dis.readInt();
+        final byte[] blocks = new byte[bufferSize];
+        for (int i = 0; i < size; i++) {
+            blocks[i] = (byte) dis.readInt();
+        }
+        return new BlocksContainer(bufferSize, 1, blocks, size);
+    }
+
+    public static byte[] toBytes(@NotNull BlocksContainer container) {
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(13 + container.size * container.blockSize);
             DataOutputStream dos = new DataOutputStream(baos);
-            final IntArrayList blocks = container.blocks;
-            final int elementsLength = blocks.size();
 
+            dos.writeByte(FORMAT_VERSION);
+            dos.writeInt(container.blockSize);
             dos.writeInt(container.bufferSize);
-            dos.writeInt(elementsLength);
-            for (int i = 0; i < elementsLength; i++) {
-                dos.writeInt(blocks.getInt(i));
-            }
+            dos.writeInt(container.size);
+            dos.write(container.blocks, 0, container.size * container.blockSize);
             dos.flush();
 
-            return Base64.getEncoder().encodeToString(baos.toByteArray());
+            return baos.toByteArray();
         } catch (IOException e) {
-            e.printStackTrace();
-            return null;
+            throw new UncheckedIOException(e);
         }
     }
 }
@@ -0,0 +1,76 @@
+package ch.unine.vauchers.erasuretester.backend;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a {@link ContainerCache}. Thread-safe.
+ */
+public class CacheStatistics {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    public void recordHit() {
+        hits.increment();
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    public void recordEviction() {
+        evictions.increment();
+    }
+
+    public void recordRejection() {
+        rejections.increment();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of cached containers removed to make room for others
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return The number of containers that the admission policy declined
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /**
+     * @return The ratio of lookups that found their container, or NaN before the first lookup
+     */
+    public double getHitRatio() {
+        final long hitCount = getHits();
+        return hitCount / (double) (hitCount + getMisses());
+    }
+
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        rejections.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics{" +
+                "hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                ", rejections=" + getRejections() +
+                '}';
+    }
+}
@@ -0,0 +1,122 @@
+package ch.unine.vauchers.erasuretester.backend;
+
+import java.util.BitSet;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Liveness of the slots of a Redis cluster, tracked from the output of CLUSTER NODES. Thread-safe.
+ * <br/>
+ * A slot has failed when no master serves it, or when its master is flagged as failing or is disconnected. Its keys
+ * cannot be read until it recovers. A slot that recovers with another master than the one it had before failing has
+ * lost its keys: the new master got it empty, e.g. from redis-trib fix. A slot moved from one healthy master to another
+ * one keeps its keys, as they are migrated with it.
+ */
+class ClusterTopology {
+    private final Supplier<String> clusterNodes;
+    /**
+     * The last output of CLUSTER NODES, to skip parsing it when nothing changed
+     */
+    private String lastClusterNodes;
+    /**
+     * Replaced on each change, never modified afterwards
+     */
+    private volatile BitSet failedSlots = new BitSet();
+    /**
+     * The master of each slot when it was last seen healthy, or null
+     */
+    private final String[] healthyMasters = new String[JedisTools.REDIS_KEYS_NUMBER];
+
+    /**
+     * Constructor
+     * @param clusterNodes Returns the output of CLUSTER NODES, asked to any node of the cluster
+     */
+    ClusterTopology(Supplier<String> clusterNodes) {
+        this.clusterNodes = clusterNodes;
+    }
+
+    /**
+     * @param slot A Redis slot
+     * @return Whether the keys of the slot cannot be read, as of the last refresh
+     */
+    boolean isSlotFailed(int slot) {
+        return failedSlots.get(slot);
+    }
+
+    /**
+     * @return The number of failed slots, as of the last refresh
+     */
+    int getFailedSlotCount() {
+        return failedSlots.cardinality();
+    }
+
+    /**
+     * Ask the cluster for its nodes, and update the state of the slots
+     * @return The slots that have lost their keys since the last refresh
+     * @throws RuntimeException If the cluster could not be asked. The state of the slots is left as it is.
+     */
+    synchronized BitSet refresh() {
+        final String nodes = clusterNodes.get();
+        final BitSet lostSlots = new BitSet();
+        if (nodes.equals(lastClusterNodes)) {
+            return lostSlots;
+        }
+        lastClusterNodes = nodes;
+
+        final String[] masters = new String[JedisTools.REDIS_KEYS_NUMBER];
+        final BitSet failed = parse(nodes, masters);
+        for (int slot = 0; slot < JedisTools.REDIS_KEYS_NUMBER; slot++) {
+            if (failed.get(slot)) {
+                continue;
+            }
+            if (failedSlots.get(slot) && healthyMasters[slot] != null && !Objects.equals(masters[slot], healthyMasters[slot])) {
+                lostSlots.set(slot);
+            }
+            healthyMasters[slot] = masters[slot];
+        }
+        failedSlots = failed;
+        return lostSlots;
+    }
+
+    /**
+     * Parse the output of CLUSTER NODES
+     * @param nodes One line per node: id, address, flags, master, ping sent, pong received, config epoch, link state,
+     *              and slots
+     * @param masters Filled with the identifier of the master serving each slot. Left to null for the slots that are
+     *                not served.
+     * @return The slots that have failed
+     */
+    static BitSet parse(String nodes, String[] masters) {
+        final BitSet failed = new BitSet(JedisTools.REDIS_KEYS_NUMBER);
+        failed.set(0, JedisTools.REDIS_KEYS_NUMBER);
+        for (String line : nodes.split("\n")) {
+            final String[] fields = line.trim().split(" ");
+            if (fields.length < 8 || !fields[2].contains("master")) {
+                continue;
+            }
+            final boolean healthy = !fields[2].contains("fail") && !fields[2].contains("noaddr")
+                    && fields[7].equals("connected");
+            for (int i = 8; i < fields.length; i++) {
+                // Slots being imported or migrated are listed between brackets, and are served by their current master
+                if (fields[i].startsWith("[")) {
+                    continue;
+                }
+                final int dash = fields[i].indexOf('-');
+                final int first = Integer.parseInt(dash < 0 ? fields[i] : fields[i].substring(0, dash));
+                final int last = dash < 0 ? first : Integer.parseInt(fields[i].substring(dash + 1));
+                for (int slot = first; slot <= last; slot++) {
+                    masters[slot] = fields[0];
+                }
+                failed.set(first, last + 1, !healthy);
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return "ClusterTopology{" +
+                "failedSlots=" + getFailedSlotCount() +
+                '}';
+    }
+}
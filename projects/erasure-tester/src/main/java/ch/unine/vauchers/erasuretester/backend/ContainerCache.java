@@ -0,0 +1,45 @@
+package ch.unine.vauchers.erasuretester.backend;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Read cache of the containers fetched from the key-value store, bounded by the memory used by the containers.
+ * <br/>
+ * Implementations must be thread-safe, as concurrent reads use the cache without any other synchronization.
+ */
+public interface ContainerCache {
+    /**
+     * Look up a container, and record the access
+     * @param key The key of the container
+     * @return The container, or null if it is not cached
+     */
+    @Nullable
+    BlocksContainer get(long key);
+
+    /**
+     * Offer a container to the cache. Depending on its policy, the cache may decline it or evict other containers.
+     * @param key The key of the container
+     * @param container The container
+     */
+    void put(long key, @NotNull BlocksContainer container);
+
+    /**
+     * Remove all the containers. The statistics are kept.
+     */
+    void clear();
+
+    /**
+     * @return The maximum memory used by the cached containers, in bytes
+     */
+    long getCapacity();
+
+    /**
+     * @return How many bytes of recently added containers the cache keeps, whatever their access frequency. Data
+     * prefetched beyond that may be evicted before being read.
+     */
+    long getRecencyCapacity();
+
+    @NotNull
+    CacheStatistics getStatistics();
+}
@@ -1,6 +1,5 @@
 package ch.unine.vauchers.erasuretester.backend;
 
-import it.unimi.dsi.fastutil.ints.IntList;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Optional;
@@ -10,16 +9,22 @@ import java.util.Optional;
  */
 public class FileMetadata {
     /**
-     * Ordered list of blocks consisting of the file. Organized like: <br/>
-     * <pre>[stripe 1 parity blocks][stripe 1 data blocks][stripe 2 parity blocks][stripe 2 data blocks], etc.</pre>
-     * <br/>
-     * The last stripe can contain meaningless data blocks, to always have complete stripes with parity blocks.
+     * Keys of the blocks of the file, addressed by stripe and by position in the stripe, the parity positions first. The
+     * keys are stored run-length encoded, see {@link BlockKeyList}. <br/>
+     * The stripes that have never been written, in the holes of sparse files, have {@link BlockKeyList#NO_KEY} at every
+     * position, and read as zeros. The last stripe can contain meaningless data blocks, to always have complete stripes
+     * with parity blocks.
      */
-    private IntList blockKeys;
+    private BlockKeyList blockKeys;
     /**
      * Size of the real contents of the file.
      */
-    private int contentsSize;
+    private long contentsSize;
+    /**
+     * Size of the blocks of the file, in bytes. 0 for files written before the block size was configurable, which all
+     * used 1-byte blocks.
+     */
+    private int blockSize;
     public static final FileMetadata EMPTY_METADATA = new FileMetadata();
 
     /**
@@ -27,7 +32,7 @@ public class FileMetadata {
      * retrieved from the storage backend.
      * @return The list of block keys
      */
-    public @NotNull Optional<IntList> getBlockKeys() {
+    public @NotNull Optional<BlockKeyList> getBlockKeys() {
         return Optional.ofNullable(blockKeys);
     }
 
@@ -36,7 +41,7 @@ public class FileMetadata {
      * @param blockKeys The new list of block keys
      * @return This object for call chaining
      */
-    public FileMetadata setBlockKeys(IntList blockKeys) {
+    public FileMetadata setBlockKeys(BlockKeyList blockKeys) {
         this.blockKeys = blockKeys;
         return this;
     }
@@ -45,7 +50,7 @@ public class FileMetadata {
      * Return the size of the file in the perspective of the user.
      * @return The total size of the file after decoding
      */
-    public int getContentsSize() {
+    public long getContentsSize() {
         return contentsSize;
     }
 
@@ -54,8 +59,26 @@ public class FileMetadata {
      * @param contentsSize The new size of the file
      * @return This object for call chaining
      */
-    public FileMetadata setContentsSize(int contentsSize) {
+    public FileMetadata setContentsSize(long contentsSize) {
         this.contentsSize = contentsSize;
         return this;
     }
+
+    /**
+     * Return the size of the blocks this file has been written with.
+     * @return The size of each block, in bytes
+     */
+    public int getBlockSize() {
+        return blockSize == 0 ? 1 : blockSize;
+    }
+
+    /**
+     * Set the size of the blocks this file is written with.
+     * @param blockSize The size of each block, in bytes
+     * @return This object for call chaining
+     */
+    public FileMetadata setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+        return this;
+    }
 }
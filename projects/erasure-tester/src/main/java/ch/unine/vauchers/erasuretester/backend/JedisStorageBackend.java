@@ -1,13 +1,27 @@
 package ch.unine.vauchers.erasuretester.backend;
 
+import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 import org.jetbrains.annotations.NotNull;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import redis.clients.jedis.*;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.JedisClusterCRC16;
+import redis.clients.util.SafeEncoder;
 
-import java.io.Closeable;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -27,17 +41,44 @@ import java.util.stream.Stream;
  * To render this strategy possible, we bypass the CRC16 function by using a table (crc-map.txt) obtained by
  * brute-forcing the algorithm. The value from this table is coded into the final key between accolades {}, so that it
  * becomes the only input to Redis' CRC16 function.
+ *
+ * <h3>Failed nodes</h3>
+ * In cluster mode, the output of CLUSTER NODES is polled, and asked again after each failed command. As the slot of
+ * each key is known, the keys stored on failed nodes are reported as unavailable without contacting the cluster. When
+ * the slots of a failed node are given to another node, the keys they held are marked as lost in the availability
+ * index. See {@link ClusterTopology}.
  */
 public class JedisStorageBackend extends StorageBackend {
     private static final String BLOCKS_PREFIX = "blocks/";
+    /**
+     * Delay between two polls of the cluster topology, in milliseconds
+     */
+    public static final long TOPOLOGY_REFRESH_MILLIS = 1000;
+    private static final Logger log = Logger.getLogger(JedisStorageBackend.class.getName());
 
-    private final JedisCommands redis;
+    /**
+     * Set in cluster mode. JedisCluster is thread-safe.
+     */
+    private final JedisCluster cluster;
+    /**
+     * Set when not in cluster mode, as a single Jedis connection cannot be shared between threads.
+     */
+    private final JedisPool pool;
     private final Map<String, FileMetadata> metadataMap;
     private final HashFunction hashFunction;
     /**
      * Redis slot space divided by totalSize
      */
     private int redisSlotDelta;
+    /**
+     * Set in cluster mode
+     */
+    private final ClusterTopology topology;
+    private final ScheduledExecutorService topologyRefresher;
+    /**
+     * The node that last answered CLUSTER NODES, asked first next time
+     */
+    private volatile String topologySource;
 
     /**
      * Constructor.
@@ -48,7 +89,8 @@ public class JedisStorageBackend extends StorageBackend {
 
         final String redis_address = System.getenv("REDIS_ADDRESS");
         if (redis_address == null) {
-            redis = new Jedis();
+            cluster = null;
+            pool = new JedisPool();
         } else {
             System.out.println("Connecting to master at " + redis_address);
             final String[] split = redis_address.split(":");
@@ -56,13 +98,28 @@ public class JedisStorageBackend extends StorageBackend {
             final int port = Integer.parseInt(split[1]);
             if (is_cluster) {
                 Set<HostAndPort> node = Stream.of(new HostAndPort(host, port)).collect(Collectors.toSet());
-                redis = new JedisCluster(node);
+                cluster = new JedisCluster(node);
+                pool = null;
             } else {
-                redis = new Jedis(host, port);
+                cluster = null;
+                pool = new JedisPool(host, port);
             }
         }
         hashFunction = Hashing.murmur3_32();
-        metadataMap = new HashMap<>();
+        metadataMap = new ConcurrentHashMap<>();
+
+        if (cluster != null) {
+            topology = new ClusterTopology(this::askClusterNodes);
+            topologyRefresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "topology refresher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            topologyRefresher.scheduleWithFixedDelay(this::refreshTopology, 0, TOPOLOGY_REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            topology = null;
+            topologyRefresher = null;
+        }
     }
 
     @Override
@@ -81,50 +138,272 @@ public class JedisStorageBackend extends StorageBackend {
     }
 
     @Override
-    public Optional<String> retrieveAggregatedBlocks(int key) {
-        final String value = redis.get(computeRedisKey(key));
-        return Optional.ofNullable(value);
+    public Optional<byte[]> retrieveAggregatedBlocks(long key) {
+        final byte[] redisKey = computeRedisKey(key);
+        if (cluster == null) {
+            return Optional.ofNullable(withJedis(jedis -> jedis.get(redisKey)));
+        }
+        try {
+            return Optional.ofNullable(cluster.get(redisKey));
+        } catch (JedisException e) {
+            refreshTopology();
+            if (isAggregatedBlockUnreachable(key)) {
+                return Optional.empty();
+            }
+            throw e;
+        }
     }
 
+    /**
+     * Uses a single MGET when not in cluster mode. In cluster mode, the keys are spread over many nodes on purpose, so
+     * they are fetched concurrently, one by one.
+     */
     @Override
-    protected void storeAggregatedBlocks(int key, String blockData) {
-        redis.set(computeRedisKey(key), blockData);
+    protected CompletableFuture<List<Optional<byte[]>>> retrieveAggregatedBlocksAsync(long[] keys) {
+        if (cluster != null) {
+            return retrieveAggregatedBlocksConcurrently(keys);
+        }
+
+        final byte[][] redisKeys = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            redisKeys[i] = computeRedisKey(keys[i]);
+        }
+        return CompletableFuture.supplyAsync(() -> withJedis(jedis -> jedis.mget(redisKeys)), fetchExecutor)
+                .thenApply(values -> values.stream().map(Optional::ofNullable).collect(Collectors.toList()));
     }
 
     @Override
-    public boolean isAggregatedBlockAvailable(int key) {
-        return redis.exists(computeRedisKey(key));
+    protected void storeAggregatedBlocks(long key, byte[] blockData) {
+        final byte[] redisKey = computeRedisKey(key);
+        if (cluster != null) {
+            try {
+                cluster.set(redisKey, blockData);
+            } catch (JedisException e) {
+                refreshTopology();
+                throw e;
+            }
+        } else {
+            withJedis(jedis -> jedis.set(redisKey, blockData));
+        }
     }
 
+    /**
+     * Pipelines the SETs, so that storing a whole stripe costs a single round-trip. In cluster mode, the keys are
+     * grouped by node, and one pipeline is sent to each node. If the cluster topology has changed in the meantime, the
+     * slot cache is renewed and the keys are stored one by one, following redirections.
+     */
     @Override
-    public void disconnect() {
+    protected void storeAggregatedBlocks(Long2ObjectMap<byte[]> aggregatedBlocks) {
+        if (cluster == null) {
+            checkReplies(withJedis(jedis -> {
+                final Pipeline pipeline = jedis.pipelined();
+                for (Long2ObjectMap.Entry<byte[]> entry : aggregatedBlocks.long2ObjectEntrySet()) {
+                    pipeline.set(computeRedisKey(entry.getLongKey()), entry.getValue());
+                }
+                return pipeline.syncAndReturnAll();
+            }));
+            return;
+        }
+
+        final JedisClusterConnectionHandler connectionHandler = cluster.getConnectionHandler();
+        final Map<String, Jedis> connections = new HashMap<>();
+        final Map<String, Pipeline> pipelines = new HashMap<>();
+        final List<Object> replies = new ArrayList<>(aggregatedBlocks.size());
+        try {
+            for (Long2ObjectMap.Entry<byte[]> entry : aggregatedBlocks.long2ObjectEntrySet()) {
+                final byte[] redisKey = computeRedisKey(entry.getLongKey());
+                final Jedis jedis = ((JedisSlotBasedConnectionHandler) connectionHandler)
+                        .getConnectionFromSlot(JedisClusterCRC16.getSlot(redisKey));
+                final String node = JedisClusterInfoCache.getNodeKey(jedis);
+                Pipeline pipeline = pipelines.get(node);
+                if (pipeline == null) {
+                    connections.put(node, jedis);
+                    pipeline = jedis.pipelined();
+                    pipelines.put(node, pipeline);
+                } else {
+                    jedis.close();
+                }
+                pipeline.set(redisKey, entry.getValue());
+            }
+            for (Pipeline pipeline : pipelines.values()) {
+                replies.addAll(pipeline.syncAndReturnAll());
+            }
+        } catch (JedisConnectionException e) {
+            refreshTopology();
+            throw e;
+        } finally {
+            connections.values().forEach(Jedis::close);
+        }
+
+        if (checkReplies(replies)) {
+            connectionHandler.renewSlotCache();
+            super.storeAggregatedBlocks(aggregatedBlocks);
+        }
+    }
+
+    /**
+     * Check the replies of a pipeline, in which errors are returned instead of thrown
+     * @return Whether some commands were redirected to another node
+     * @throws JedisException The first error that is not a redirection
+     */
+    private static boolean checkReplies(List<Object> replies) {
+        boolean redirected = false;
+        for (Object reply : replies) {
+            if (reply instanceof JedisRedirectionException) {
+                redirected = true;
+            } else if (reply instanceof JedisException) {
+                throw (JedisException) reply;
+            } else if (reply instanceof Exception) {
+                throw new JedisException((Exception) reply);
+            }
+        }
+        return redirected;
+    }
+
+    @Override
+    public boolean isAggregatedBlockAvailable(long key) {
+        final byte[] redisKey = computeRedisKey(key);
+        if (cluster == null) {
+            return withJedis(jedis -> jedis.exists(redisKey));
+        }
         try {
-            ((Closeable)redis).close();
-        } catch (IOException e) {
-            e.printStackTrace();
+            return cluster.exists(redisKey);
+        } catch (JedisException e) {
+            refreshTopology();
+            if (isAggregatedBlockUnreachable(key)) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Pipelines the EXISTS when not in cluster mode. In cluster mode, the keys are checked one by one.
+     */
+    @Override
+    protected void areAggregatedBlocksAvailable(long[] keys, boolean[] available) {
+        if (cluster != null) {
+            super.areAggregatedBlocksAvailable(keys, available);
+            return;
+        }
+        withJedis(jedis -> {
+            final Pipeline pipeline = jedis.pipelined();
+            final List<Response<Boolean>> responses = new ArrayList<>(keys.length);
+            for (long key : keys) {
+                responses.add(pipeline.exists(computeRedisKey(key)));
+            }
+            pipeline.sync();
+            for (int i = 0; i < keys.length; i++) {
+                available[i] = responses.get(i).get();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * In cluster mode, whether the slot of the key has failed, according to the last known topology
+     */
+    @Override
+    protected boolean isAggregatedBlockUnreachable(long key) {
+        return topology != null && topology.isSlotFailed(computeRedisSlot(key));
+    }
+
+    /**
+     * Ask the cluster for its topology again, and mark the keys of the slots that have been lost in the availability
+     * index. Only valid in cluster mode.
+     */
+    private void refreshTopology() {
+        final BitSet lostSlots;
+        try {
+            lostSlots = topology.refresh();
+        } catch (JedisException e) {
+            log.log(Level.FINE, "Cannot refresh the cluster topology", e);
+            return;
+        }
+        final AvailabilityIndex availabilityIndex = getAvailabilityIndex();
+        if (lostSlots.isEmpty() || availabilityIndex == null) {
+            return;
+        }
+
+        log.warning(lostSlots.cardinality() + " Redis slots have been lost");
+        final JedisClusterConnectionHandler connectionHandler = cluster.getConnectionHandler();
+        connectionHandler.renewSlotCache();
+        final BitSet lostPositions = new BitSet(totalSize);
+        lostSlots.stream().filter(slot -> slot < totalSize * redisSlotDelta).forEach(slot -> lostPositions.set(slot / redisSlotDelta));
+        lostPositions.stream().forEach(position -> availabilityIndex.markLost(position, key -> lostSlots.get(computeRedisSlot(key))));
+    }
+
+    /**
+     * Get the output of CLUSTER NODES from any node that answers. Only valid in cluster mode.
+     */
+    private String askClusterNodes() {
+        final List<Map.Entry<String, JedisPool>> nodes = new ArrayList<>(cluster.getClusterNodes().entrySet());
+        nodes.sort(Comparator.comparing(node -> !node.getKey().equals(topologySource)));
+        JedisException failure = new JedisConnectionException("No node of the cluster is known");
+        for (Map.Entry<String, JedisPool> node : nodes) {
+            try (Jedis jedis = node.getValue().getResource()) {
+                final String clusterNodes = jedis.clusterNodes();
+                topologySource = node.getKey();
+                return clusterNodes;
+            } catch (JedisException e) {
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Run a command with a connection borrowed from the pool. Only valid when not in cluster mode.
+     */
+    private <T> T withJedis(Function<Jedis, T> command) {
+        try (Jedis jedis = pool.getResource()) {
+            return command.apply(jedis);
         }
     }
 
-    private String computeRedisKey(int redisKey) {
-        final int offset = Math.floorMod(hashFunction.hashInt(redisKey).asInt(), redisSlotDelta);
-        final int redisSlot = computePositionWithRedisKey(redisKey) * redisSlotDelta + offset;
-        final String crcHack = JedisTools.CRC16_NUMBERS_CORRESPONDANCES[redisSlot];
-        return crcHack + BLOCKS_PREFIX + redisKey;
+    @Override
+    public void disconnect() {
+        if (cluster != null) {
+            topologyRefresher.shutdownNow();
+            try {
+                cluster.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else {
+            pool.destroy();
+        }
+    }
+
+    private byte[] computeRedisKey(long redisKey) {
+        final String crcHack = JedisTools.CRC16_NUMBERS_CORRESPONDANCES[computeRedisSlot(redisKey)];
+        return SafeEncoder.encode(crcHack + BLOCKS_PREFIX + redisKey);
+    }
+
+    /**
+     * @return The Redis slot storing a key, in the range of slots of its position
+     */
+    private int computeRedisSlot(long redisKey) {
+        // Keys that fit in an int keep the slot they had before keys became 64-bit
+        final HashCode hash = redisKey == (int) redisKey ? hashFunction.hashInt((int) redisKey) : hashFunction.hashLong(redisKey);
+        final int offset = Math.floorMod(hash.asInt(), redisSlotDelta);
+        return computePositionWithRedisKey(redisKey) * redisSlotDelta + offset;
     }
 
     @Override
     public void clearReadCache() {
         super.clearReadCache();
-        if (redis instanceof JedisCluster) {
-            final JedisClusterConnectionHandler connectionHandler = ((JedisCluster) redis).getConnectionHandler();
+        if (cluster != null) {
+            final JedisClusterConnectionHandler connectionHandler = cluster.getConnectionHandler();
             connectionHandler.renewSlotCache();
             connectionHandler.getNodes();
+            refreshTopology();
         }
     }
 
     @Override
-    public void defineTotalSize(int totalSize) {
-        super.defineTotalSize(totalSize);
+    public void defineTotalSize(int totalSize, int blockSize) {
+        super.defineTotalSize(totalSize, blockSize);
         redisSlotDelta = JedisTools.REDIS_KEYS_NUMBER / totalSize;
     }
 }
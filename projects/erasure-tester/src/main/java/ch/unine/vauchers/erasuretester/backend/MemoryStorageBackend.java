@@ -3,17 +3,19 @@ package ch.unine.vauchers.erasuretester.backend;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Storage backend implementation backed by a plain old Java Map object.
  */
 public class MemoryStorageBackend extends StorageBackend {
-    protected Map<Integer, String> blocksStorage;
+    protected Map<Long, byte[]> blocksStorage;
     protected Map<String, FileMetadata> metadataStorage;
 
     public MemoryStorageBackend() {
-        blocksStorage = new HashMap<>();
-        metadataStorage = new HashMap<>();
+        blocksStorage = new ConcurrentHashMap<>();
+        metadataStorage = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -32,17 +34,29 @@ public class MemoryStorageBackend extends StorageBackend {
     }
 
     @Override
-    public Optional<String> retrieveAggregatedBlocks(int key) {
+    public Optional<byte[]> retrieveAggregatedBlocks(long key) {
         return Optional.ofNullable(blocksStorage.get(key));
     }
 
+    /**
+     * The map is local, so the keys are fetched one after the other by the calling thread
+     */
     @Override
-    protected void storeAggregatedBlocks(int key, String blockData) {
+    protected CompletableFuture<List<Optional<byte[]>>> retrieveAggregatedBlocksAsync(long[] keys) {
+        final List<Optional<byte[]>> results = new ArrayList<>(keys.length);
+        for (long key : keys) {
+            results.add(retrieveAggregatedBlocks(key));
+        }
+        return CompletableFuture.completedFuture(results);
+    }
+
+    @Override
+    protected void storeAggregatedBlocks(long key, byte[] blockData) {
         blocksStorage.put(key, blockData);
     }
 
     @Override
-    public boolean isAggregatedBlockAvailable(int key) {
+    public boolean isAggregatedBlockAvailable(long key) {
         return blocksStorage.containsKey(key);
     }
 
@@ -4,6 +4,10 @@ import org.redisson.Config;
 import org.redisson.Redisson;
 import org.redisson.RedissonClient;
 
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Storage backend backed by a Redis server.<br/>
  * The address of the Redis server can be configured using the <i>REDIS_ADDRESS</i> environment variable. The default
@@ -37,6 +41,14 @@ public class RedissonStorageBackend extends MemoryStorageBackend {
         metadataStorage = redis.getMap(METADATA_MAP_NAME);
     }
 
+    /**
+     * The map is remote, so the keys are fetched concurrently
+     */
+    @Override
+    protected CompletableFuture<List<Optional<byte[]>>> retrieveAggregatedBlocksAsync(long[] keys) {
+        return retrieveAggregatedBlocksConcurrently(keys);
+    }
+
     @Override
     public void disconnect() {
         redis.shutdown();
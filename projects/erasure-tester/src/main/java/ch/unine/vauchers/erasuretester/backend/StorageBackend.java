@@ -1,43 +1,112 @@
 package ch.unine.vauchers.erasuretester.backend;
 
-import ch.unine.vauchers.erasuretester.utils.IntCacheSet;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.Long2IntLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Class that can store and retrieve file metadata and individual data blocks.
  * <br/>
  * Call defineTotalSize() before usage and disconnect() after usage.
+ * <br/>
+ * The block operations are thread-safe. Writes are serialized, whereas reads only lock the caches while accessing
+ * them, so that concurrent reads can wait for the key-value store in parallel. Implementations of the abstract
+ * methods must therefore be thread-safe.
+ * <br/>
+ * Blocks are buffered in one container per position until the container is full, or until it is explicitly flushed.
+ * Blocks that have not reached the key-value store yet are served from their container.
+ * <br/>
+ * {@link BlockKeyList#NO_KEY} designates a hole of a sparse file: it is always available, and reads as a block of
+ * zeros.
  */
 public abstract class StorageBackend {
     protected int bufferSize;
+    /**
+     * Size of each block, in bytes
+     */
+    protected int blockSize;
     public static final int FUSE_READ_SIZE = 1024 * 128 + 20; // Update accordingly
-    public static final int READ_CACHE_SIZE = 50;
-    public static final int STATUS_CACHE_SIZE = 50;
+    /**
+     * Default capacity of the read cache, in bytes
+     */
+    public static final long DEFAULT_READ_CACHE_CAPACITY = 64L * 1024 * 1024;
+    /**
+     * Returned by retrieveBlockValue when a block cannot be found. It cannot be a valid unsigned byte.
+     */
+    public static final int BLOCK_NOT_FOUND = -1;
+    /**
+     * Maximum number of containers fetched at the same time by {@link #retrieveAggregatedBlocksConcurrently(long[])},
+     * and of fetches waiting for a thread
+     */
+    public static final int FETCH_THREADS = 32;
+    public static final int FETCH_BACKLOG = 1024;
     private BlocksContainer[] writeBuffers;
-    private LinkedHashMap<Integer, BlocksContainer> readCache;
-    private int[] counters;
+    /**
+     * When the first block of each write buffer has been stored, in nanoseconds
+     */
+    private long[] firstWriteTimes;
+    /**
+     * Containers that are not in the key-value store yet: the non-empty write buffers and the containers being flushed.
+     * Blocks are put in the write buffers while holding this lock, so that readers see them.
+     */
+    private final Long2ObjectMap<BlocksContainer> pendingContainers = new Long2ObjectOpenHashMap<>();
+    private volatile ContainerCache readCache;
+    /**
+     * Fetches in flight, by container key, so that a container is never fetched twice at the same time
+     */
+    private final Long2ObjectMap<CompletableFuture<BlocksContainer>> loadingContainers = new Long2ObjectOpenHashMap<>();
+    private long[] counters;
     protected int totalSize;
-    private final IntCacheSet positiveCache;
-    private final IntCacheSet negativeCache;
+    /**
+     * What is known about the presence of the containers in the key-value store, so that the availability of the
+     * blocks is looked up at most once per container
+     */
+    private volatile AvailabilityIndex availabilityIndex;
+    /**
+     * Runs the concurrent fetches of {@link #retrieveAggregatedBlocksConcurrently(long[])}, with at most
+     * {@link #FETCH_THREADS} threads, so that read-ahead and hedged reads cannot open an unbounded number of
+     * connections. When {@link #FETCH_BACKLOG} fetches are already waiting, the caller runs the fetch itself. Its
+     * threads are daemons, and stop after being idle for a while.
+     */
+    protected final ExecutorService fetchExecutor = newFetchExecutor();
+
+    private static ExecutorService newFetchExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(FETCH_BACKLOG), runnable -> {
+            final Thread thread = new Thread(runnable, "block fetcher");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 
     /**
      * You NEED to call defineTotalSize before any other action on this object!
      */
     public StorageBackend() {
-        readCache = new LinkedHashMap<Integer, BlocksContainer>(READ_CACHE_SIZE + 1, .75f, true) {
-            @Override
-            public boolean removeEldestEntry(Map.Entry<Integer, BlocksContainer> eldest) {
-                return size() > READ_CACHE_SIZE;
-            }
-        };
-        positiveCache = new IntCacheSet(STATUS_CACHE_SIZE);
-        negativeCache = new IntCacheSet(STATUS_CACHE_SIZE);
+        readCache = new TinyLfuContainerCache(DEFAULT_READ_CACHE_CAPACITY);
     }
 
     /**
@@ -66,63 +135,429 @@ public abstract class StorageBackend {
      * @param key The unique identifier of the block, given by storeBlock
      * @return The block wrapped in an Optional (not present if not found)
      */
-    public Optional<Integer> retrieveBlock(int key) {
-        int redisKey = key / bufferSize;
-        BlocksContainer container = readCache.get(redisKey);
-        if (container == null) {
-            container = fetchAndCache(redisKey);
+    public Optional<Integer> retrieveBlock(long key) {
+        final int value = retrieveBlockValue(key);
+        if (value == BLOCK_NOT_FOUND) {
+            return Optional.empty();
+        } else {
+            return Optional.of(value);
         }
+    }
+
+    /**
+     * Retrieve the first byte of a data block from storage, without boxing it. Convenient when the block size is 1.
+     * @param key The unique identifier of the block, given by storeBlock
+     * @return The byte as an unsigned value, or BLOCK_NOT_FOUND if not found
+     */
+    public int retrieveBlockValue(long key) {
+        if (key == BlockKeyList.NO_KEY) {
+            return 0;
+        }
+        final BlocksContainer container = getContainer(key / bufferSize);
         if (container != null) {
-            return Optional.of(container.get(key % bufferSize));
+            return container.get((int) (key % bufferSize));
         } else {
-            return Optional.empty();
+            return BLOCK_NOT_FOUND;
+        }
+    }
+
+    /**
+     * Retrieve a data block from storage, and copy it to a buffer. Use this method in hot paths.
+     * @param key The unique identifier of the block, given by storeBlock
+     * @param dest The buffer to copy the block to
+     * @param offset Where to copy the block in dest. There must be room for blockSize bytes.
+     * @return false if the block was not found, in which case dest is left untouched
+     */
+    public boolean retrieveBlock(long key, byte[] dest, int offset) {
+        if (key == BlockKeyList.NO_KEY) {
+            Arrays.fill(dest, offset, offset + blockSize, (byte) 0);
+            return true;
+        }
+        final BlocksContainer container = getContainer(key / bufferSize);
+        if (container != null) {
+            container.get((int) (key % bufferSize), dest, offset);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Nullable
+    private BlocksContainer getContainer(long redisKey) {
+        BlocksContainer container = getPendingContainer(redisKey);
+        if (container != null) {
+            return container;
+        }
+        container = readCache.get(redisKey);
+        if (container == null) {
+            container = fetchAndCache(redisKey);
+        }
+        return container;
+    }
+
+    /**
+     * Get a container that has not reached the key-value store yet. Its blocks can be read without locking, as the
+     * blocks of a container never change once they have been put, and are put before their key is handed out.
+     * @return The container, or null if it is not pending
+     */
+    @Nullable
+    private BlocksContainer getPendingContainer(long redisKey) {
+        synchronized (pendingContainers) {
+            return pendingContainers.get(redisKey);
         }
     }
 
     /**
-     * Fetch the aggregated block from the backend and cache it in readCache
+     * Fetch the aggregated block from the backend and cache it in readCache, or wait for its fetch in flight
      * @param redisKey
      * @return The corresponding block, or null
      */
     @Nullable
-    private BlocksContainer fetchAndCache(int redisKey) {
-        final Optional<String> optionalContainer = retrieveAggregatedBlocks(redisKey);
+    private BlocksContainer fetchAndCache(long redisKey) {
+        final CompletableFuture<BlocksContainer> load;
+        synchronized (loadingContainers) {
+            load = loadingContainers.get(redisKey);
+        }
+        if (load != null) {
+            return join(load);
+        }
+        if (isAggregatedBlockUnreachable(redisKey)) {
+            return null;
+        }
+        return cache(redisKey, retrieveAggregatedBlocks(redisKey));
+    }
+
+    /**
+     * Deserialize an aggregated block fetched from the backend and cache it in readCache. Whether it has been found is
+     * recorded in the availability index, unless it could not be reached.
+     * @return The corresponding block, or null
+     */
+    @Nullable
+    private BlocksContainer cache(long redisKey, Optional<byte[]> optionalContainer) {
+        if (optionalContainer.isPresent() || !isAggregatedBlockUnreachable(redisKey)) {
+            availabilityIndex.set(redisKey, optionalContainer.isPresent());
+        }
         if (!optionalContainer.isPresent()) {
-            negativeCache.add(redisKey);
             return null;
         } else {
-            BlocksContainer container = BlocksContainer.fromString(optionalContainer.get());
+            BlocksContainer container = BlocksContainer.fromBytes(optionalContainer.get());
+            if (container.getBlockSize() != blockSize) {
+                throw new IllegalStateException("Container " + redisKey + " has blocks of " + container.getBlockSize()
+                        + " bytes instead of " + blockSize);
+            }
             readCache.put(redisKey, container);
             return container;
         }
     }
 
     /**
-     * Retrieve an aggregation of blocks in String form (to deserialize)
+     * Retrieve many data blocks at once. Each container that is not cached is fetched only once, and all of them are
+     * fetched concurrently, see {@link #retrieveBlocksAsync(long[], byte[], boolean[])}.
+     * @param keys The unique identifiers of the blocks, given by storeBlock
+     * @param dest Filled with the blocks, one after the other. There must be room for keys.length * blockSize bytes.
+     * @param found Set to whether each block has been found. The space of the blocks not found is left untouched.
+     */
+    public void retrieveBlocks(long[] keys, byte[] dest, boolean[] found) {
+        final long[] toFetch = copyCachedBlocks(keys, dest, found);
+        if (toFetch == null) {
+            return;
+        }
+        join(fetchMissingBlocks(keys, dest, found, toFetch));
+    }
+
+    /**
+     * Wait for a future, rethrowing the runtime exception it failed with as is
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Retrieve many data blocks at once, without waiting for the key-value store. The cached blocks are copied before
+     * this method returns. The containers that are not cached are each fetched once, all of them at the same time,
+     * and the returned future completes when their blocks have been copied too.
+     * <br/>
+     * dest and found must not be accessed before the future completes.
+     * @param keys The unique identifiers of the blocks, given by storeBlock
+     * @param dest Filled with the blocks, one after the other. There must be room for keys.length * blockSize bytes.
+     * @param found Set to whether each block has been found. The space of the blocks not found is left untouched.
+     * @return A future completing when all the blocks have been copied
+     */
+    public CompletableFuture<Void> retrieveBlocksAsync(long[] keys, byte[] dest, boolean[] found) {
+        final long[] toFetch = copyCachedBlocks(keys, dest, found);
+        if (toFetch == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return fetchMissingBlocks(keys, dest, found, toFetch);
+    }
+
+    /**
+     * Copy the blocks whose containers are pending or cached, without allocating
+     * @return The keys of the containers to fetch, or null if all the blocks have been found
+     */
+    @Nullable
+    private long[] copyCachedBlocks(long[] keys, byte[] dest, boolean[] found) {
+        LongList toFetch = null;
+        long previousRedisKey = Long.MIN_VALUE;
+        BlocksContainer container = null;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == BlockKeyList.NO_KEY) {
+                Arrays.fill(dest, i * blockSize, (i + 1) * blockSize, (byte) 0);
+                found[i] = true;
+                continue;
+            }
+            final long redisKey = keys[i] / bufferSize;
+            // Consecutive blocks of the same container count as a single access to the cache
+            if (redisKey != previousRedisKey) {
+                previousRedisKey = redisKey;
+                container = getPendingContainer(redisKey);
+                if (container == null) {
+                    container = readCache.get(redisKey);
+                }
+            }
+            found[i] = container != null;
+            if (container != null) {
+                container.get((int) (keys[i] % bufferSize), dest, i * blockSize);
+            } else {
+                if (toFetch == null) {
+                    toFetch = new LongArrayList();
+                }
+                if (!toFetch.contains(redisKey)) {
+                    toFetch.add(redisKey);
+                }
+            }
+        }
+        return toFetch == null ? null : toFetch.toLongArray();
+    }
+
+    /**
+     * Fetch containers concurrently, cache them, and copy the blocks that were not found yet
+     */
+    private CompletableFuture<Void> fetchMissingBlocks(long[] keys, byte[] dest, boolean[] found, long[] redisKeys) {
+        final List<CompletableFuture<BlocksContainer>> loads = loadContainers(redisKeys);
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            final Long2ObjectMap<BlocksContainer> containers = new Long2ObjectOpenHashMap<>(redisKeys.length);
+            for (int i = 0; i < redisKeys.length; i++) {
+                containers.put(redisKeys[i], loads.get(i).join());
+            }
+            for (int i = 0; i < keys.length; i++) {
+                if (!found[i]) {
+                    final BlocksContainer container = containers.get(keys[i] / bufferSize);
+                    found[i] = container != null;
+                    if (container != null) {
+                        container.get((int) (keys[i] % bufferSize), dest, i * blockSize);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetch containers and cache them, without waiting for the key-value store. A container that is already being
+     * fetched is not fetched again: its fetch in flight is joined instead. Unreachable containers are not fetched at
+     * all. The other ones are fetched with a single call to {@link #retrieveAggregatedBlocksAsync(long[])}.
+     * @param redisKeys The keys of the containers, without duplicates
+     * @return Futures of the containers (null if not found), in the same order as the keys. They must not be cancelled.
+     */
+    private List<CompletableFuture<BlocksContainer>> loadContainers(long[] redisKeys) {
+        final List<CompletableFuture<BlocksContainer>> loads = new ArrayList<>(redisKeys.length);
+        final LongList toFetch = new LongArrayList(redisKeys.length);
+        final List<CompletableFuture<BlocksContainer>> fetches = new ArrayList<>(redisKeys.length);
+        synchronized (loadingContainers) {
+            for (long redisKey : redisKeys) {
+                CompletableFuture<BlocksContainer> load = loadingContainers.get(redisKey);
+                if (load == null && isAggregatedBlockUnreachable(redisKey)) {
+                    load = CompletableFuture.completedFuture(null);
+                } else if (load == null) {
+                    load = new CompletableFuture<>();
+                    loadingContainers.put(redisKey, load);
+                    toFetch.add(redisKey);
+                    fetches.add(load);
+                }
+                loads.add(load);
+            }
+        }
+        if (toFetch.isEmpty()) {
+            return loads;
+        }
+
+        final long[] fetchKeys = toFetch.toLongArray();
+        CompletableFuture<List<Optional<byte[]>>> fetched;
+        try {
+            fetched = retrieveAggregatedBlocksAsync(fetchKeys);
+        } catch (RuntimeException e) {
+            fetched = new CompletableFuture<>();
+            fetched.completeExceptionally(e);
+        }
+        fetched.whenComplete((values, error) -> {
+            for (int i = 0; i < fetchKeys.length; i++) {
+                BlocksContainer container = null;
+                Throwable failure = error;
+                if (failure == null) {
+                    try {
+                        container = cache(fetchKeys[i], values.get(i));
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+                // The container is cached before the fetch is forgotten, so that readers always find one of them
+                synchronized (loadingContainers) {
+                    loadingContainers.remove(fetchKeys[i]);
+                }
+                if (failure == null) {
+                    fetches.get(i).complete(container);
+                } else {
+                    fetches.get(i).completeExceptionally(failure);
+                }
+            }
+        });
+        return loads;
+    }
+
+    /**
+     * Load the container of a block into the read cache, without waiting for the key-value store. Reading the block
+     * once the future has completed is then served from the cache, unless the container has been evicted meanwhile.
+     * <br/>
+     * Also used to prefetch blocks, ignoring the returned future.
+     * @param key The unique identifier of the block, given by storeBlock
+     * @return A future completing with whether the block is available. Cancelling it does not stop the fetch.
+     */
+    public CompletableFuture<Boolean> loadBlockAsync(long key) {
+        if (key == BlockKeyList.NO_KEY) {
+            return CompletableFuture.completedFuture(true);
+        }
+        final long redisKey = key / bufferSize;
+        if (getPendingContainer(redisKey) != null) {
+            return CompletableFuture.completedFuture(true);
+        }
+        if (readCache.get(redisKey) != null) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return loadContainers(new long[]{redisKey}).get(0).thenApply(container -> container != null);
+    }
+
+    /**
+     * @return The number of blocks held by each container, per position
+     */
+    public int getBlocksPerContainer() {
+        return bufferSize;
+    }
+
+    /**
+     * @return The cache of the containers fetched from the key-value store
+     */
+    public ContainerCache getReadCache() {
+        return readCache;
+    }
+
+    /**
+     * Replace the cache of the containers fetched from the key-value store. The cached containers are dropped.
+     * @param readCache The new cache. It must not be used by any other backend.
+     */
+    public void setReadCache(@NotNull ContainerCache readCache) {
+        this.readCache = readCache;
+    }
+
+    /**
+     * Replace the read cache with a {@link TinyLfuContainerCache} of a given capacity
+     * @param capacity The maximum memory used by the cached containers, in bytes
+     */
+    public void setReadCacheCapacity(long capacity) {
+        setReadCache(new TinyLfuContainerCache(capacity));
+    }
+
+    /**
+     * Retrieve an aggregation of blocks in serialized form
      * @param key The key
-     * @return The String wrapped in an Optional
+     * @return The bytes wrapped in an Optional
      */
-    protected abstract Optional<String> retrieveAggregatedBlocks(int key);
+    protected abstract Optional<byte[]> retrieveAggregatedBlocks(long key);
+
+    /**
+     * Retrieve many aggregations of blocks in serialized form, without waiting for the key-value store. By default,
+     * the keys are fetched concurrently, see {@link #retrieveAggregatedBlocksConcurrently(long[])}. Backends that can
+     * fetch many keys in a single round-trip should override this method.
+     * @param keys The keys
+     * @return A future of the bytes wrapped in Optionals, in the same order as the keys
+     */
+    protected CompletableFuture<List<Optional<byte[]>>> retrieveAggregatedBlocksAsync(long[] keys) {
+        return retrieveAggregatedBlocksConcurrently(keys);
+    }
+
+    /**
+     * Fetch many keys concurrently, one key per thread of fetchExecutor, so that fetching them costs a single
+     * round-trip. Even a single key is fetched by another thread, so that the caller never waits, unless fetchExecutor
+     * is saturated.
+     * @param keys The keys
+     * @return A future of the bytes wrapped in Optionals, in the same order as the keys
+     */
+    protected final CompletableFuture<List<Optional<byte[]>>> retrieveAggregatedBlocksConcurrently(long[] keys) {
+        final List<CompletableFuture<Optional<byte[]>>> futures = new ArrayList<>(keys.length);
+        for (long key : keys) {
+            futures.add(CompletableFuture.supplyAsync(() -> retrieveAggregatedBlocks(key), fetchExecutor));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
 
     /**
      * Store a serialized aggregation of blocks
      * @param key The key
-     * @param blockData The data
+     * @param blockData The data. Implementations may keep a reference to it, it is never modified afterwards.
+     */
+    protected abstract void storeAggregatedBlocks(long key, byte[] blockData);
+
+    /**
+     * Store many serialized aggregations of blocks at once. Backends that can store many keys in a single round-trip
+     * should override this method. All the aggregations must have been stored when it returns.
+     * @param aggregatedBlocks The data, by key. Implementations may keep references to it, it is never modified
+     *                         afterwards.
      */
-    protected abstract void storeAggregatedBlocks(int key, String blockData);
+    protected void storeAggregatedBlocks(Long2ObjectMap<byte[]> aggregatedBlocks) {
+        for (Long2ObjectMap.Entry<byte[]> entry : aggregatedBlocks.long2ObjectEntrySet()) {
+            storeAggregatedBlocks(entry.getLongKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Store a 1-byte data block. This returns a key to later ask for the data.
+     * Only valid when the block size is 1.
+     * @param blockData The data to store, as an unsigned byte
+     * @param position Position in [0; (stripeSize + paritySize)]. Used to effectively distribute the load on nodes.
+     * @return The unique identifier of the block
+     */
+    public long storeBlock(int blockData, int position) {
+        assert blockSize == 1;
+        return storeBlock(new byte[]{(byte) blockData}, 0, position);
+    }
 
     /**
      * Store a data block. This returns a key to later ask for the data.
-     * @param blockData The data to store
+     * @param blocks The buffer containing the data to store
+     * @param offset Where the block starts in blocks. The block is blockSize bytes long.
      * @param position Position in [0; (stripeSize + paritySize)]. Used to effectively distribute the load on nodes.
      * @return The unique identifier of the block
      */
-    public int storeBlock(int blockData, int position) {
-        int key = counters[position];
+    public synchronized long storeBlock(byte[] blocks, int offset, int position) {
+        long key = counters[position];
 
-        writeBuffers[position].put(blockData);
+        final BlocksContainer writeBuffer = writeBuffers[position];
+        synchronized (pendingContainers) {
+            if (writeBuffer.isEmpty()) {
+                pendingContainers.put(key / bufferSize, writeBuffer);
+                firstWriteTimes[position] = System.nanoTime();
+            }
+            writeBuffer.put(blocks, offset);
+        }
 
-        if (writeBuffers[position].isFull()) {
+        if (writeBuffer.isFull()) {
             flush(position);
         } else {
             counters[position]++;
@@ -132,55 +567,212 @@ public abstract class StorageBackend {
     }
 
     /**
-     * Write the buffer at a specific location to the key-value store
+     * Store many data blocks belonging to the same position, in order.
+     * @param blocks The data to store, the blocks one after the other
+     * @param position Position in [0; (stripeSize + paritySize)]. Used to effectively distribute the load on nodes.
+     * @param keys Filled with the unique identifiers of the blocks. There must be one block per key.
+     */
+    public synchronized void storeBlocks(byte[] blocks, int position, long[] keys) {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = storeBlock(blocks, i * blockSize, position);
+        }
+    }
+
+    /**
+     * Write the buffer at a specific location to the key-value store. Empty buffers are left as they are.
      * @param position Position in [0; (stripeSize + paritySize)].
      */
     private void flush(int position) {
-        String aggregatedBlocks = BlocksContainer.toString(writeBuffers[position]);
-        writeBuffers[position] = new BlocksContainer(bufferSize);
-        final int counter = counters[position];
-        final int redisKey = counter / bufferSize;
-        storeAggregatedBlocks(redisKey, aggregatedBlocks);
+        flush(IntArrayList.wrap(new int[]{position}));
+    }
+
+    /**
+     * Write the buffers at many locations to the key-value store, with a single call to the backend. Empty buffers
+     * are left as they are.
+     * @param positions Positions in [0; (stripeSize + paritySize)].
+     */
+    private void flush(IntList positions) {
+        final Long2ObjectMap<byte[]> aggregatedBlocks = new Long2ObjectLinkedOpenHashMap<>(positions.size());
+        final IntList flushedPositions = new IntArrayList(positions.size());
+        for (int i = 0; i < positions.size(); i++) {
+            final int position = positions.getInt(i);
+            final BlocksContainer writeBuffer = writeBuffers[position];
+            if (!writeBuffer.isEmpty()) {
+                aggregatedBlocks.put(counters[position] / bufferSize, BlocksContainer.toBytes(writeBuffer));
+                writeBuffers[position] = new BlocksContainer(bufferSize, blockSize);
+                flushedPositions.add(position);
+            }
+        }
+        if (aggregatedBlocks.isEmpty()) {
+            return;
+        }
 
-        counters[position] = redisKey * bufferSize + totalSize * bufferSize;
+        if (aggregatedBlocks.size() == 1) {
+            final Long2ObjectMap.Entry<byte[]> entry = aggregatedBlocks.long2ObjectEntrySet().iterator().next();
+            storeAggregatedBlocks(entry.getLongKey(), entry.getValue());
+        } else {
+            storeAggregatedBlocks(aggregatedBlocks);
+        }
+        for (long redisKey : aggregatedBlocks.keySet()) {
+            availabilityIndex.set(redisKey, true);
+        }
+        synchronized (pendingContainers) {
+            pendingContainers.keySet().removeAll(aggregatedBlocks.keySet());
+        }
+
+        for (int i = 0; i < flushedPositions.size(); i++) {
+            final int position = flushedPositions.getInt(i);
+            final long redisKey = counters[position] / bufferSize;
+            counters[position] = redisKey * bufferSize + (long) totalSize * bufferSize;
+        }
     }
 
     /**
      * Ask if a specified block can be retrieved.<br/>
      * If this returns false, then any retrieve method called with the same key will fail. If this returns true and a
      * retrieve method fails, then something happened in the meantime, or a bug was encountered.
+     * <br/>
+     * The key-value store is only asked about containers missing from the availability index. The containers written
+     * or fetched by this backend are always in the index, and the containers stored on failed nodes are known to be
+     * unreachable, so that checking them costs no round-trip.
      * @param key The unique identifier of the block
      * @return A boolean that specifies whether the block is available
      */
-    public boolean isBlockAvailable(int key) {
-        int redisKey = key / bufferSize;
-        if (positiveCache.contains(redisKey)) {
+    public boolean isBlockAvailable(long key) {
+        if (key == BlockKeyList.NO_KEY) {
             return true;
-        } else if (negativeCache.contains(redisKey)) {
+        }
+        long redisKey = key / bufferSize;
+        if (getPendingContainer(redisKey) != null) {
+            return true;
+        }
+        if (isAggregatedBlockUnreachable(redisKey)) {
             return false;
-        } else {
-            if (isAggregatedBlockAvailable(redisKey)) {
-                positiveCache.add(redisKey);
+        }
+        switch (availabilityIndex.get(redisKey)) {
+            case AVAILABLE:
                 return true;
-            } else {
-                negativeCache.add(redisKey);
+            case UNAVAILABLE:
                 return false;
+            default:
+                final boolean available = isAggregatedBlockAvailable(redisKey);
+                availabilityIndex.set(redisKey, available);
+                return available;
+        }
+    }
+
+    /**
+     * Ask if many blocks can be retrieved, see {@link #isBlockAvailable(long)}. The containers missing from the
+     * availability index are looked up with a single call to {@link #areAggregatedBlocksAvailable(long[], boolean[])}.
+     * @param keys The unique identifiers of the blocks
+     * @param available Set to whether each block is available
+     */
+    public void areBlocksAvailable(long[] keys, boolean[] available) {
+        checkBlocksAvailable(keys, available, true);
+    }
+
+    /**
+     * Ask the key-value store if many blocks can be retrieved, without trusting the availability index. Containers
+     * that were available when written or fetched may have been lost since, without this backend knowing it: the
+     * repairs look them up again, and the availability index is updated with the answers. Only the pending containers
+     * and the unreachable ones are not looked up.
+     * @param keys The unique identifiers of the blocks
+     * @param available Set to whether each block is available
+     */
+    public void probeBlocksAvailable(long[] keys, boolean[] available) {
+        checkBlocksAvailable(keys, available, false);
+    }
+
+    /**
+     * @param useIndex Whether to trust the availability index, or to look up all the containers
+     */
+    private void checkBlocksAvailable(long[] keys, boolean[] available, boolean useIndex) {
+        // Index of each container to look up in the batch
+        Long2IntMap toCheck = null;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == BlockKeyList.NO_KEY) {
+                available[i] = true;
+                continue;
+            }
+            final long redisKey = keys[i] / bufferSize;
+            if (getPendingContainer(redisKey) != null) {
+                available[i] = true;
+            } else if (isAggregatedBlockUnreachable(redisKey)) {
+                available[i] = false;
+            } else {
+                final AvailabilityIndex.Availability availability = useIndex ? availabilityIndex.get(redisKey)
+                        : AvailabilityIndex.Availability.UNKNOWN;
+                available[i] = availability == AvailabilityIndex.Availability.AVAILABLE;
+                if (availability == AvailabilityIndex.Availability.UNKNOWN) {
+                    if (toCheck == null) {
+                        toCheck = new Long2IntLinkedOpenHashMap();
+                        toCheck.defaultReturnValue(-1);
+                    }
+                    if (!toCheck.containsKey(redisKey)) {
+                        toCheck.put(redisKey, toCheck.size());
+                    }
+                }
+            }
+        }
+        if (toCheck == null) {
+            return;
+        }
+
+        final long[] redisKeys = toCheck.keySet().toLongArray();
+        final boolean[] found = new boolean[redisKeys.length];
+        areAggregatedBlocksAvailable(redisKeys, found);
+        for (int i = 0; i < redisKeys.length; i++) {
+            availabilityIndex.set(redisKeys[i], found[i]);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            final int checked = keys[i] == BlockKeyList.NO_KEY ? -1 : toCheck.get(keys[i] / bufferSize);
+            if (checked >= 0) {
+                available[i] = found[checked];
             }
         }
     }
 
+    /**
+     * @return What is known about the presence of the containers in the key-value store. Invalidate its entries when
+     * the key-value store changes without this backend knowing it.
+     */
+    public AvailabilityIndex getAvailabilityIndex() {
+        return availabilityIndex;
+    }
+
     /**
      * Returns if the key-value store contains a specific key
      */
-    protected abstract boolean isAggregatedBlockAvailable(int key);
+    protected abstract boolean isAggregatedBlockAvailable(long key);
+
+    /**
+     * Returns if the key-value store contains many keys. Backends that can check many keys in a single round-trip
+     * should override this method.
+     * @param keys The keys
+     * @param available Set to whether each key is contained
+     */
+    protected void areAggregatedBlocksAvailable(long[] keys, boolean[] available) {
+        for (int i = 0; i < keys.length; i++) {
+            available[i] = isAggregatedBlockAvailable(keys[i]);
+        }
+    }
+
+    /**
+     * Returns if a key is known to be stored on a node that has failed, without contacting the key-value store. The
+     * availability of such keys is not recorded in the availability index, as the node may come back. Backends that
+     * know the topology of the key-value store should override this method.
+     */
+    protected boolean isAggregatedBlockUnreachable(long key) {
+        return false;
+    }
 
     /**
      * Compute the position in [0; (stripeSize + paritySize)] according to a block key.
      * @param key A block key, a.k.a. what is given to users of this class.
      * @return Position in [0; (stripeSize + paritySize)]
      */
-    protected int computePositionWithBlockKey(int key) {
-        return Math.floorMod(key / bufferSize, totalSize);
+    protected int computePositionWithBlockKey(long key) {
+        return Math.toIntExact(Math.floorMod(key / bufferSize, totalSize));
     }
 
     /**
@@ -188,8 +780,8 @@ public abstract class StorageBackend {
      * @param key The key that is used internally.
      * @return Position in [0; (stripeSize + paritySize)]
      */
-    protected int computePositionWithRedisKey(int redisKey) {
-        return Math.floorMod(redisKey, totalSize);
+    protected int computePositionWithRedisKey(long redisKey) {
+        return Math.toIntExact(Math.floorMod(redisKey, totalSize));
     }
 
     /**
@@ -203,33 +795,68 @@ public abstract class StorageBackend {
      * @param totalSize The total size (stripe size + parity size)
      */
     public void defineTotalSize(int totalSize) {
+        defineTotalSize(totalSize, 1);
+    }
+
+    /**
+     * Set the total size (stripe size + parity size) and the block size to use.
+     * This method MUST be called before any usage of the object.
+     * @param totalSize The total size (stripe size + parity size)
+     * @param blockSize The size of each block, in bytes
+     */
+    public void defineTotalSize(int totalSize, int blockSize) {
         this.totalSize = totalSize;
+        this.blockSize = blockSize;
         writeBuffers = new BlocksContainer[totalSize];
-        counters = new int[totalSize];
-        bufferSize = (int) Math.ceil(FUSE_READ_SIZE / (double) totalSize);
+        firstWriteTimes = new long[totalSize];
+        counters = new long[totalSize];
+        synchronized (pendingContainers) {
+            pendingContainers.clear();
+        }
+        availabilityIndex = new AvailabilityIndex(totalSize);
+        bufferSize = (int) Math.ceil(FUSE_READ_SIZE / (double) (totalSize * blockSize));
 
         for (int i = 0; i < totalSize; i++) {
-            writeBuffers[i] = new BlocksContainer(bufferSize);
+            writeBuffers[i] = new BlocksContainer(bufferSize, blockSize);
             counters[i] = i * bufferSize;
         }
     }
 
     /**
-     * Force write all temporary blocks to the storage backend.
+     * Force write all temporary blocks to the storage backend. The buffers of all positions are written at once.
+     */
+    public synchronized void flushAll() {
+        final IntList positions = new IntArrayList(totalSize);
+        for (int i = 0; i < totalSize; i++) {
+            positions.add(i);
+        }
+        flush(positions);
+    }
+
+    /**
+     * Write the temporary blocks that have been waiting for a given time to the storage backend.
+     * @param maxAgeMillis How long the first block of a buffer may wait before the buffer is written, in milliseconds
      */
-    public void flushAll() {
+    public synchronized void flushExpired(long maxAgeMillis) {
+        final long now = System.nanoTime();
+        final IntList positions = new IntArrayList(totalSize);
         for (int i = 0; i < totalSize; i++) {
-            flush(i);
+            if (!writeBuffers[i].isEmpty() && now - firstWriteTimes[i] >= TimeUnit.MILLISECONDS.toNanos(maxAgeMillis)) {
+                positions.add(i);
+            }
         }
+        flush(positions);
     }
 
     /**
-     * Clear all caches. Useful between two runs of a benchmark.
+     * Clear all caches, including the availability index. Useful between two runs of a benchmark, or after nodes of
+     * the key-value store have been restarted.
      */
     public void clearReadCache() {
         readCache.clear();
-        positiveCache.clear();
-        negativeCache.clear();
+        if (availabilityIndex != null) {
+            availabilityIndex.clear();
+        }
     }
 
     @Override
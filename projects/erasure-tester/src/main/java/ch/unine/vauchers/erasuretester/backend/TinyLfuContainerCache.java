@@ -0,0 +1,170 @@
+package ch.unine.vauchers.erasuretester.backend;
+
+import ch.unine.vauchers.erasuretester.utils.FrequencySketch;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Container cache bounded in bytes, with a W-TinyLFU policy that resists scans.
+ * <br/>
+ * The cache is split into {@link #SEGMENTS} segments, each locked independently and holding an equal share of the
+ * capacity. The segment of a container is chosen by hashing its key. Each segment has a window and a main space, both
+ * LRU. New containers always enter the window. A container leaving the window enters the main space if there is room
+ * for it. Otherwise, it competes with the least recently used container of the main space. It takes that container's
+ * place only if it has been accessed more often, according to a {@link FrequencySketch} of the segment. A file read
+ * once from start to end therefore does not flush the containers that are read often.
+ */
+public class TinyLfuContainerCache implements ContainerCache {
+    public static final int SEGMENTS = 16;
+    /**
+     * Share of the capacity given to the windows
+     */
+    public static final double WINDOW_RATIO = 0.2;
+    /**
+     * Size of the smallest containers, used to size the frequency sketches
+     */
+    private static final int MIN_CONTAINER_SIZE = 4096;
+
+    private final long capacity;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final CacheStatistics statistics = new CacheStatistics();
+
+    /**
+     * Constructor
+     * @param capacity The maximum memory used by the cached containers, in bytes
+     */
+    public TinyLfuContainerCache(long capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity");
+        }
+        this.capacity = capacity;
+        final long segmentCapacity = capacity / SEGMENTS;
+        final int expectedContainers = (int) Math.min(1 << 20, segmentCapacity / MIN_CONTAINER_SIZE);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentCapacity, expectedContainers);
+        }
+    }
+
+    @Nullable
+    @Override
+    public BlocksContainer get(long key) {
+        final BlocksContainer container = segmentOf(key).get(key);
+        if (container != null) {
+            statistics.recordHit();
+        } else {
+            statistics.recordMiss();
+        }
+        return container;
+    }
+
+    @Override
+    public void put(long key, @NotNull BlocksContainer container) {
+        segmentOf(key).put(key, container);
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public long getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public long getRecencyCapacity() {
+        return (long) (capacity * WINDOW_RATIO);
+    }
+
+    @NotNull
+    @Override
+    public CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    private Segment segmentOf(long key) {
+        return segments[(int) (HashCommon.mix(key) & (SEGMENTS - 1))];
+    }
+
+    @Override
+    public String toString() {
+        return "TinyLfuContainerCache{" +
+                "capacity=" + capacity +
+                '}';
+    }
+
+    private final class Segment {
+        private final long windowCapacity;
+        private final long mainCapacity;
+        private final Long2ObjectLinkedOpenHashMap<BlocksContainer> window = new Long2ObjectLinkedOpenHashMap<>();
+        private final Long2ObjectLinkedOpenHashMap<BlocksContainer> main = new Long2ObjectLinkedOpenHashMap<>();
+        private final FrequencySketch sketch;
+        private long windowBytes;
+        private long mainBytes;
+
+        private Segment(long capacity, int expectedContainers) {
+            windowCapacity = (long) (capacity * WINDOW_RATIO);
+            mainCapacity = capacity - windowCapacity;
+            sketch = new FrequencySketch(expectedContainers);
+        }
+
+        private synchronized BlocksContainer get(long key) {
+            sketch.increment(key);
+            final BlocksContainer container = window.getAndMoveToLast(key);
+            return container != null ? container : main.getAndMoveToLast(key);
+        }
+
+        private synchronized void put(long key, BlocksContainer container) {
+            final int size = container.getMemorySize();
+            if (size > windowCapacity + mainCapacity) {
+                statistics.recordRejection();
+                return;
+            }
+
+            final BlocksContainer previous = main.remove(key);
+            if (previous != null) {
+                mainBytes -= previous.getMemorySize();
+            }
+            final BlocksContainer replaced = window.putAndMoveToLast(key, container);
+            windowBytes += size - (replaced != null ? replaced.getMemorySize() : 0);
+
+            while (windowBytes > windowCapacity && !window.isEmpty()) {
+                final long candidateKey = window.firstLongKey();
+                final BlocksContainer candidate = window.removeFirst();
+                windowBytes -= candidate.getMemorySize();
+                admit(candidateKey, candidate);
+            }
+        }
+
+        /**
+         * Move a container leaving the window to the main space, if the admission policy accepts it
+         */
+        private void admit(long key, BlocksContainer container) {
+            final int size = container.getMemorySize();
+            final int frequency = sketch.frequency(key);
+            while (mainBytes + size > mainCapacity) {
+                if (main.isEmpty() || frequency <= sketch.frequency(main.firstLongKey())) {
+                    statistics.recordRejection();
+                    return;
+                }
+                mainBytes -= main.removeFirst().getMemorySize();
+                statistics.recordEviction();
+            }
+            main.putAndMoveToLast(key, container);
+            mainBytes += size;
+        }
+
+        private synchronized void clear() {
+            window.clear();
+            main.clear();
+            windowBytes = 0;
+            mainBytes = 0;
+            sketch.clear();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package ch.unine.vauchers.erasuretester.erasure;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reverse index from the containers of the storage backend to the ranges of stripes whose blocks they hold.
+ * Thread-safe.
+ * <br/>
+ * An entry is added whenever blocks are stored, and is not removed when the blocks are overwritten: a stripe found
+ * through the index may not have any block in the container anymore. The entries of a container are removed once the
+ * container has been lost and its stripes repaired.
+ */
+class ContainerIndex {
+    private final Long2ObjectMap<List<StripeRange>> ranges = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * Record that a container holds blocks of some consecutive stripes of a file
+     * @param containerKey The key of the container
+     * @param path The path of the file
+     * @param first The first stripe
+     * @param end The stripe after the last one
+     */
+    synchronized void add(long containerKey, String path, int first, int end) {
+        List<StripeRange> containerRanges = ranges.get(containerKey);
+        if (containerRanges == null) {
+            containerRanges = new ArrayList<>(1);
+            ranges.put(containerKey, containerRanges);
+        }
+        // The blocks of a container are usually stored in a row, by the same write
+        if (!containerRanges.isEmpty()) {
+            final StripeRange last = containerRanges.get(containerRanges.size() - 1);
+            if (last.path.equals(path) && first <= last.end && end >= last.first) {
+                containerRanges.set(containerRanges.size() - 1,
+                        new StripeRange(path, Math.min(first, last.first), Math.max(end, last.end)));
+                return;
+            }
+        }
+        containerRanges.add(new StripeRange(path, first, end));
+    }
+
+    /**
+     * @return The keys of all the containers that hold blocks
+     */
+    synchronized long[] getContainers() {
+        return ranges.keySet().toLongArray();
+    }
+
+    /**
+     * @return The ranges of stripes that have, or used to have, blocks in a container
+     */
+    synchronized List<StripeRange> get(long containerKey) {
+        final List<StripeRange> containerRanges = ranges.get(containerKey);
+        return containerRanges == null ? Collections.emptyList() : new ArrayList<>(containerRanges);
+    }
+
+    synchronized void remove(long containerKey) {
+        ranges.remove(containerKey);
+    }
+
+    synchronized int size() {
+        return ranges.size();
+    }
+
+    /**
+     * Consecutive stripes of a file. Immutable.
+     */
+    static final class StripeRange {
+        final String path;
+        final int first;
+        /**
+         * The stripe after the last one
+         */
+        final int end;
+
+        StripeRange(String path, int first, int end) {
+            this.path = path;
+            this.first = first;
+            this.end = end;
+        }
+
+        @Override
+        public String toString() {
+            return path + "[" + first + "; " + end + "[";
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package ch.unine.vauchers.erasuretester.erasure;
+
+import ch.unine.vauchers.erasuretester.backend.CacheStatistics;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of the contents of decoded stripes, keyed by path and stripe index, bounded by the memory used by the
+ * contents. Thread-safe.
+ * <br/>
+ * Healthy stripes are cheap to read again from the container cache of the storage backend, so only the stripes that
+ * had to be decoded are cached. The entries are grouped by file, so that looking up a file that has no cached stripe,
+ * or invalidating its stripes, does not touch the other files. The LRU order is kept by a list linking all the
+ * entries.
+ */
+class DecodedStripeCache {
+    private final long capacity;
+    private final Map<String, Int2ObjectMap<Entry>> entries = new HashMap<>();
+    /**
+     * Sentinel of the LRU list: head.next is the least recently used entry, head.previous the most recently used one
+     */
+    private final Entry head = new Entry(null, -1, null);
+    private long size;
+    private final CacheStatistics statistics;
+
+    /**
+     * Constructor
+     * @param capacity The maximum memory used by the cached contents, in bytes
+     * @param statistics Updated with the accesses to the cache
+     */
+    DecodedStripeCache(long capacity, CacheStatistics statistics) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.statistics = statistics;
+        head.previous = head;
+        head.next = head;
+    }
+
+    /**
+     * Copy the contents of a stripe, if cached, and record the access
+     * @param path The path of the file
+     * @param stripe The index of the stripe
+     * @param dest Where to copy the contents, from its start
+     * @return Whether the stripe was cached
+     */
+    synchronized boolean get(String path, int stripe, byte[] dest) {
+        final Int2ObjectMap<Entry> stripes = entries.get(path);
+        final Entry entry = stripes == null ? null : stripes.get(stripe);
+        if (entry == null) {
+            statistics.recordMiss();
+            return false;
+        }
+        statistics.recordHit();
+        unlink(entry);
+        linkLast(entry);
+        System.arraycopy(entry.contents, 0, dest, 0, entry.contents.length);
+        return true;
+    }
+
+    /**
+     * Cache the contents of a stripe, evicting the least recently used stripes if needed
+     * @param path The path of the file
+     * @param stripe The index of the stripe
+     * @param contents The contents of the stripe. They are copied.
+     */
+    synchronized void put(String path, int stripe, byte[] contents) {
+        if (contents.length > capacity) {
+            statistics.recordRejection();
+            return;
+        }
+        remove(path, stripe);
+        while (size + contents.length > capacity) {
+            final Entry eldest = head.next;
+            remove(eldest.path, eldest.stripe);
+            statistics.recordEviction();
+        }
+
+        final Entry entry = new Entry(path, stripe, contents.clone());
+        entries.computeIfAbsent(path, p -> new Int2ObjectOpenHashMap<>()).put(stripe, entry);
+        linkLast(entry);
+        size += contents.length;
+    }
+
+    /**
+     * Remove some stripes of a file, for instance because they have been overwritten
+     * @param path The path of the file
+     * @param first The first stripe
+     * @param end The stripe after the last one
+     */
+    synchronized void invalidate(String path, int first, int end) {
+        final Int2ObjectMap<Entry> stripes = entries.get(path);
+        if (stripes == null) {
+            return;
+        }
+        if ((long) end - first <= stripes.size()) {
+            for (int stripe = first; stripe < end; stripe++) {
+                remove(path, stripe);
+            }
+            return;
+        }
+        // Fewer cached stripes than stripes to invalidate
+        final ObjectIterator<Int2ObjectMap.Entry<Entry>> iterator = stripes.int2ObjectEntrySet().iterator();
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next().getValue();
+            if (entry.stripe >= first && entry.stripe < end) {
+                iterator.remove();
+                unlink(entry);
+                size -= entry.contents.length;
+            }
+        }
+        if (stripes.isEmpty()) {
+            entries.remove(path);
+        }
+    }
+
+    /**
+     * @return The memory used by the cached contents, in bytes
+     */
+    synchronized long getSize() {
+        return size;
+    }
+
+    private void remove(String path, int stripe) {
+        final Int2ObjectMap<Entry> stripes = entries.get(path);
+        if (stripes == null) {
+            return;
+        }
+        final Entry entry = stripes.remove(stripe);
+        if (entry != null) {
+            unlink(entry);
+            size -= entry.contents.length;
+            if (stripes.isEmpty()) {
+                entries.remove(path);
+            }
+        }
+    }
+
+    private void linkLast(Entry entry) {
+        entry.previous = head.previous;
+        entry.next = head;
+        head.previous.next = entry;
+        head.previous = entry;
+    }
+
+    private static void unlink(Entry entry) {
+        entry.previous.next = entry.next;
+        entry.next.previous = entry.previous;
+    }
+
+    private static final class Entry {
+        private final String path;
+        private final int stripe;
+        private final byte[] contents;
+        private Entry previous;
+        private Entry next;
+
+        private Entry(String path, int stripe, byte[] contents) {
+            this.path = path;
+            this.stripe = stripe;
+            this.contents = contents;
+        }
+    }
+}
@@ -1,70 +1,167 @@
 package ch.unine.vauchers.erasuretester.erasure;
 
+import ch.unine.vauchers.erasuretester.backend.BlockKeyList;
+import ch.unine.vauchers.erasuretester.backend.CacheStatistics;
 import ch.unine.vauchers.erasuretester.backend.FileMetadata;
 import ch.unine.vauchers.erasuretester.backend.StorageBackend;
 import ch.unine.vauchers.erasuretester.erasure.codes.ErasureCode;
 import ch.unine.vauchers.erasuretester.erasure.codes.SimpleRegeneratingCode;
 import ch.unine.vauchers.erasuretester.erasure.codes.TooManyErasedLocations;
+import com.google.common.util.concurrent.Striped;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import org.jetbrains.annotations.NotNull;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
-import java.util.function.Function;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Stream;
 
 /**
  * Intermediate layer between the frontend, the storage backend and erasure coding.
+ * <br/>
+ * Each position of a stripe holds a block of blockSize contiguous bytes of the file, so that a stripe holds
+ * stripeSize * blockSize bytes of contents. Blocks are encoded and decoded column by column, byte i of every block of a
+ * stripe forming one codeword.
+ * <br/>
+ * Operations on files are guarded by per-path read/write locks: reads of any files proceed in parallel, while a
+ * modification of a file excludes all other operations on the same file only.
+ * <br/>
+ * By default, every write is flushed to the key-value store before returning. In write-back mode, the blocks stay in
+ * the write buffers of the storage backend until they are full, until {@link #flush()} is called, or until they have
+ * been waiting for the configured delay.
  */
 public class FileEncoderDecoder {
+    public static final int LOCK_STRIPES = 64;
+    public static final int CONTEXT_POOL_SIZE = 16;
+    /**
+     * Maximum number of degraded stripes waiting for their decoded blocks to be stored back
+     */
+    public static final int READ_REPAIR_BACKLOG = 1024;
+    /**
+     * Block size of the files written before it was configurable
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1;
+
     @NotNull
     protected final ErasureCode erasureCode;
     @NotNull
     protected final StorageBackend storageBackend;
     protected final Logger log = Logger.getLogger(FileEncoderDecoder.class.getName());
     protected final int totalSize;
-
-    // Field used in decode/encode methods, declared globally for better performance
-    protected final IntList erasedBlocksIndices;
-    protected final int[] stripeBuffer;
-    protected final int[] parityBuffer;
-    protected final int[] dataBuffer;
     protected final int stripeSize;
     protected final int paritySize;
+    /**
+     * Size of each block, in bytes
+     */
+    protected final int blockSize;
+    /**
+     * Amount of bytes of contents held by a stripe
+     */
+    protected final int stripeDataSize;
+    private final Striped<ReadWriteLock> fileLocks = Striped.readWriteLock(LOCK_STRIPES);
+    /**
+     * Scratch buffers of finished read operations, reused to avoid allocating
+     */
+    private final BlockingQueue<StripeContext> readContexts = new ArrayBlockingQueue<>(CONTEXT_POOL_SIZE);
+    private volatile boolean writeBack;
+    private ScheduledExecutorService flusher;
+    /**
+     * Number of parity positions requested by hedged reads. 0 when hedged reads are disabled.
+     */
+    private volatile int hedgeBudget;
+    private volatile long hedgeDelayMillis;
+    private final HedgingStatistics hedgingStatistics = new HedgingStatistics();
+    /**
+     * Maximum read-ahead window, in bytes. 0 when read-ahead is disabled.
+     */
+    private volatile long readAheadLimit;
+    /**
+     * Number of threads repairing stripes at the same time
+     */
+    private volatile int repairConcurrency = 1;
+    private final RepairStatistics repairStatistics = new RepairStatistics();
+    /**
+     * Shared by all the repairs, so that their threads are reused. Created by the first repair, and after
+     * {@link #close()}.
+     */
+    private RepairEngine repairEngine;
+    /**
+     * The stripes having blocks in each container, so that the stripes of lost containers can be repaired
+     */
+    private final ContainerIndex containerIndex = new ContainerIndex();
+    /**
+     * The damaged stripes waiting for a priority repair, and the threads repairing them. The threads are null when
+     * priority repair is disabled.
+     */
+    private final RepairQueue repairQueue = new RepairQueue();
+    private volatile boolean priorityRepair;
+    private ExecutorService priorityRepairers;
+    /**
+     * The degraded stripes whose decoded blocks wait to be stored back, and the thread storing them. Null when
+     * read-repair is disabled.
+     */
+    private volatile BlockingQueue<DecodedStripe> readRepairs;
+    private Thread readRepairer;
+    /**
+     * The contents of the stripes decoded by reads. Null when disabled.
+     */
+    private volatile DecodedStripeCache stripeCache;
+    private final CacheStatistics stripeCacheStatistics = new CacheStatistics();
 
-    private enum Modes {
-        READ_FILE, WRITE_FILE
+    /**
+     * Constructor, using 1-byte blocks
+     * @param erasureCode The erasure coding implementation to use
+     * @param storageBackend The storage backend implementation to use
+     */
+    public FileEncoderDecoder(@NotNull ErasureCode erasureCode, @NotNull StorageBackend storageBackend) {
+        this(erasureCode, storageBackend, DEFAULT_BLOCK_SIZE);
     }
 
     /**
      * Constructor
      * @param erasureCode The erasure coding implementation to use
      * @param storageBackend The storage backend implementation to use
+     * @param blockSize The size of each block, in bytes
      */
-    public FileEncoderDecoder(@NotNull ErasureCode erasureCode, @NotNull StorageBackend storageBackend) {
+    public FileEncoderDecoder(@NotNull ErasureCode erasureCode, @NotNull StorageBackend storageBackend, int blockSize) {
         if (erasureCode instanceof SimpleRegeneratingCode && !(this instanceof SimpleRegeneratingFileEncoderDecoder)) {
             throw new IllegalArgumentException("SimpleRegeneratingCode needs a special FileEncoderDecoder");
         }
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("The block size must be positive");
+        }
 
         this.erasureCode = erasureCode;
         this.storageBackend = storageBackend;
+        this.blockSize = blockSize;
 
         // Only works with bytes
         assert(erasureCode.symbolSize() == 8);
         stripeSize = erasureCode.stripeSize();
         paritySize = erasureCode.paritySize();
         totalSize = stripeSize + paritySize;
-        storageBackend.defineTotalSize(totalSize);
-
-        erasedBlocksIndices = new IntArrayList();
-        stripeBuffer = new int[stripeSize];
-        parityBuffer = new int[paritySize];
-        dataBuffer = new int[totalSize];
+        stripeDataSize = stripeSize * blockSize;
+        storageBackend.defineTotalSize(totalSize, blockSize);
     }
 
     /**
@@ -77,18 +174,30 @@ public class FileEncoderDecoder {
      *                  is positioned.
      * @throws TooManyErasedLocations Due to too many unavailable blocks, the contents can not be retrieved.
      */
-    public void readFile(final String path, final int size, final int offset, @NotNull final ByteBuffer outBuffer) throws TooManyErasedLocations {
-        log.info("Reading the file at " + path);
+    public void readFile(final String path, final int size, final long offset, @NotNull final ByteBuffer outBuffer) throws TooManyErasedLocations {
+        log.log(Level.FINE, "Reading the file at {0}", path);
 
-        final FileMetadata metadata = storageBackend.getFileMetadata(path)
-                .orElseGet(() -> new FileMetadata().setContentsSize(0));
-        final int contentsSize = Math.min(metadata.getContentsSize() - offset, size);
-        if (contentsSize <= 0) {
-            return;
-        }
-        final IntList allBlockKeys = metadata.getBlockKeys().get();
+        final Lock lock = fileLocks.get(path).readLock();
+        lock.lock();
+        try {
+            final FileMetadata metadata = storageBackend.getFileMetadata(path)
+                    .orElseGet(() -> new FileMetadata().setContentsSize(0));
+            final long contentsSize = Math.min(metadata.getContentsSize() - offset, size);
+            if (contentsSize <= 0) {
+                return;
+            }
+            checkBlockSize(path, metadata);
+            final BlockKeyList allBlockKeys = metadata.getBlockKeys().get();
 
-        iterate(contentsSize, offset, outBuffer, allBlockKeys, Modes.READ_FILE);
+            StripeContext context = readContexts.poll();
+            if (context == null) {
+                context = new StripeContext();
+            }
+            iterate(path, (int) contentsSize, offset, outBuffer, allBlockKeys, context);
+            readContexts.offer(context);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -98,40 +207,229 @@ public class FileEncoderDecoder {
      * @param offset At which byte index do the writing starts (relative to the complete file)
      * @param contents The data to write into the file. The buffer will be read starting at its current position.
      */
-    public void writeFile(String path, int size, int offset, @NotNull ByteBuffer contents) {
-        log.info("Writing the file at " + path);
+    public void writeFile(String path, int size, long offset, @NotNull ByteBuffer contents) {
+        log.log(Level.FINE, "Writing the file at {0}", path);
 
-        final FileMetadata metadata = storageBackend.getFileMetadata(path).orElseGet(FileMetadata::new);
-        final int iterationSize = Math.min(contents.limit(), size);
-        final int oldContentSize = metadata.getContentsSize();
-        final int contentsSize = Math.max(iterationSize + offset, oldContentSize);
-        metadata.setContentsSize(contentsSize);
-        IntArrayList blockKeys = (IntArrayList) metadata.getBlockKeys().orElseGet(IntArrayList::new);
+        final Lock lock = fileLocks.get(path).writeLock();
+        lock.lock();
+        try {
+            writeFileLocked(path, size, offset, contents);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        final int nextBoundary = nextBoundary(contentsSize);
-        blockKeys.ensureCapacity(nextBoundary);
+    private void writeFileLocked(String path, int size, long offset, @NotNull ByteBuffer contents) {
+        final FileMetadata metadata = storageBackend.getFileMetadata(path)
+                .orElseGet(() -> new FileMetadata().setBlockSize(blockSize));
+        checkBlockSize(path, metadata);
+        final int iterationSize = Math.min(contents.limit(), size);
+        final long oldContentSize = metadata.getContentsSize();
+        final long contentsSize = Math.max(iterationSize + offset, oldContentSize);
+        final BlockKeyList blockKeys = metadata.getBlockKeys().orElseGet(() -> new BlockKeyList(totalSize));
 
-        for (int i = blockKeys.size(); i < nextBoundary; i++) {
+        final int nbStripes = stripeCount(contentsSize);
+        if (blockKeys.getNbStripes() < nbStripes) {
             // Grow the blockKeys list to fit the size/offset given in parameter
-            blockKeys.add(-1);
+            blockKeys.setNbStripes(nbStripes);
         }
+        metadata.setContentsSize(contentsSize);
 
-        try {
-            iterate(iterationSize, offset, contents, blockKeys, Modes.WRITE_FILE);
-        } catch (TooManyErasedLocations ignored) {} // Will never happen
+        if (iterationSize > 0) {
+            invalidateStripes(path, stripeOf(offset), stripeOf(offset + iterationSize - 1) + 1);
+            writeStripes(path, blockKeys, contents, iterationSize, offset);
+        }
 
         metadata.setBlockKeys(blockKeys);
         storageBackend.setFileMetadata(path, metadata);
+        if (!writeBack) {
+            storageBackend.flushAll();
+        }
+    }
+
+    /**
+     * Stop flushing after every write. Written blocks are flushed once their containers are full, when flush is
+     * called, and by a background thread once they have been waiting for flushDelayMillis.
+     * @param flushDelayMillis How long a block may wait before being flushed, in milliseconds. 0 to only flush when
+     *                         containers are full or when asked to.
+     */
+    public synchronized void enableWriteBack(long flushDelayMillis) {
+        writeBack = true;
+        if (flushDelayMillis > 0 && flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "write-back flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(() -> {
+                try {
+                    storageBackend.flushExpired(flushDelayMillis);
+                } catch (RuntimeException e) {
+                    log.log(Level.WARNING, "Unable to flush the written blocks", e);
+                }
+            }, flushDelayMillis, flushDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Read stripes in hedged mode. The data positions of a stripe are requested at once. If they have not all arrived
+     * after hedgeDelayMillis, or if one of them is unavailable, hedgeBudget parity positions are requested too, and the
+     * stripe is decoded with the first positions to arrive. Positions that are still in flight are abandoned.
+     * @param hedgeBudget How many parity positions to request, in [1; paritySize]
+     * @param hedgeDelayMillis How long to wait for the data positions before requesting parity positions, in
+     *                         milliseconds. 0 to request them along with the data positions.
+     */
+    public synchronized void enableHedgedReads(int hedgeBudget, long hedgeDelayMillis) {
+        if (hedgeBudget < 1 || hedgeBudget > paritySize) {
+            throw new IllegalArgumentException("The hedge budget must be between 1 and the parity size");
+        }
+        if (hedgeDelayMillis < 0) {
+            throw new IllegalArgumentException("The hedge delay must not be negative");
+        }
+        this.hedgeDelayMillis = hedgeDelayMillis;
+        this.hedgeBudget = hedgeBudget;
+    }
+
+    /**
+     * @return The counters of the hedged reads
+     */
+    public HedgingStatistics getHedgingStatistics() {
+        return hedgingStatistics;
+    }
+
+    /**
+     * Let the {@link ReadAhead} objects prefetch the stripes following sequential reads.
+     * @param maxWindowBytes The maximum amount of contents to prefetch ahead of a read, in bytes. The window is also
+     *                       bounded by the capacity of the read cache of the storage backend.
+     */
+    public synchronized void enableReadAhead(long maxWindowBytes) {
+        if (maxWindowBytes < 1) {
+            throw new IllegalArgumentException("The read-ahead window must be positive");
+        }
+        readAheadLimit = maxWindowBytes;
+    }
+
+    /**
+     * Create the read-ahead state of an open file
+     */
+    public ReadAhead newReadAhead() {
+        return new ReadAhead(this);
+    }
+
+    /**
+     * The amount of contents covered by one container per data position. Prefetching less than that does not save
+     * any round-trip.
+     * @return The smallest useful read-ahead window, in bytes
+     */
+    long getReadAheadMinWindow() {
+        return (long) storageBackend.getBlocksPerContainer() * stripeDataSize;
+    }
+
+    /**
+     * The largest read-ahead window, so that the prefetched containers fill at most half of the part of the read cache
+     * that keeps recent containers, and are not evicted before being read. A window holds as many bytes of blocks as
+     * bytes of contents.
+     * @return The largest read-ahead window, in bytes, or 0 if read-ahead is disabled
+     */
+    long getReadAheadMaxWindow() {
+        final long limit = readAheadLimit;
+        if (limit == 0) {
+            return 0;
+        }
+        final long cacheBound = Math.max(getReadAheadMinWindow(), storageBackend.getReadCache().getRecencyCapacity() / 2);
+        return Math.min(limit, cacheBound);
+    }
+
+    /**
+     * Start loading the data blocks of a part of a file into the read cache of the storage backend, without waiting
+     * for them. Each container is requested once.
+     * @param path String uniquely identifying a file
+     * @param offset Where the part starts in the file
+     * @param length The size of the part, in bytes
+     */
+    public void prefetch(String path, long offset, long length) {
+        final Lock lock = fileLocks.get(path).readLock();
+        lock.lock();
+        try {
+            final Optional<FileMetadata> metadata = storageBackend.getFileMetadata(path);
+            if (!metadata.isPresent() || !metadata.get().getBlockKeys().isPresent()) {
+                return;
+            }
+            final long end = Math.min(offset + length, metadata.get().getContentsSize());
+            if (end <= offset || metadata.get().getBlockSize() != blockSize) {
+                return;
+            }
+            final BlockKeyList blockKeys = metadata.get().getBlockKeys().get();
+            final int firstStripe = stripeOf(offset);
+            final int lastStripe = Math.min(stripeOf(end - 1), blockKeys.getNbStripes() - 1);
+            final int blocksPerContainer = storageBackend.getBlocksPerContainer();
+
+            for (int position = paritySize; position < totalSize; position++) {
+                long previousContainer = BlockKeyList.NO_KEY;
+                for (int stripe = firstStripe; stripe <= lastStripe; stripe++) {
+                    final long key = blockKeys.getKey(stripe, position);
+                    if (key != BlockKeyList.NO_KEY && key / blocksPerContainer != previousContainer) {
+                        previousContainer = key / blocksPerContainer;
+                        storageBackend.loadBlockAsync(key);
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write all the buffered blocks to the key-value store. After this call, all the files written so far are
+     * durable.
+     */
+    public void flush() {
         storageBackend.flushAll();
     }
 
+    /**
+     * Stop the background flusher and the repair threads, if any, and flush the buffered blocks.
+     */
+    public synchronized void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+            flusher = null;
+        }
+        if (priorityRepairers != null) {
+            priorityRepair = false;
+            priorityRepairers.shutdownNow();
+            priorityRepairers = null;
+        }
+        if (readRepairer != null) {
+            // The thread stores the stripes still waiting, then stops
+            readRepairs = null;
+            try {
+                readRepairer.join(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            readRepairer = null;
+        }
+        if (repairEngine != null) {
+            repairEngine.close();
+            repairEngine = null;
+        }
+        flush();
+    }
+
     /**
      * Return the size of a given file
      * @param path String uniquely identifying a file
      * @return The size of the contents of the file, in bytes
      */
-    public int sizeOfFile(String path) {
-        return storageBackend.getFileMetadata(path).orElse(FileMetadata.EMPTY_METADATA).getContentsSize();
+    public long sizeOfFile(String path) {
+        final Lock lock = fileLocks.get(path).readLock();
+        lock.lock();
+        try {
+            return storageBackend.getFileMetadata(path).orElse(FileMetadata.EMPTY_METADATA).getContentsSize();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -139,193 +437,841 @@ public class FileEncoderDecoder {
      * @param filepath String uniquely identifying a file
      * @param size The new size of the file
      */
-    public void truncate(final String filepath, final int size) {
-        storageBackend.getFileMetadata(filepath).ifPresent(metadata -> {
-            final int newSize = Math.min(metadata.getContentsSize(), size);
-            metadata.setContentsSize(newSize);
-            metadata.getBlockKeys().ifPresent(integers -> integers.size(newSize));
-        });
+    public void truncate(final String filepath, final long size) {
+        final Lock lock = fileLocks.get(filepath).writeLock();
+        lock.lock();
+        try {
+            storageBackend.getFileMetadata(filepath).ifPresent(metadata -> {
+                final long newSize = Math.min(metadata.getContentsSize(), size);
+                metadata.setContentsSize(newSize);
+                metadata.getBlockKeys().ifPresent(blockKeys -> blockKeys.setNbStripes(stripeCount(newSize)));
+                invalidateStripes(filepath, stripeCount(newSize), Integer.MAX_VALUE);
+            });
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * Repair a file. Checks the availability of all blocks of the file from the key-value store. All unavailable blocks
      * are repaired using other available blocks, when possible. After the operation is completed, the file should have
-     * all its blocks in an intact state.
+     * all its blocks in an intact state, unless it has been modified meanwhile.
      * @param path The path of the file to repair
      */
     public void repairFile(String path) {
-        storageBackend.getFileMetadata(path).ifPresent(this::repairFile);
-    }
-
-    protected void repairFile(FileMetadata metadata) {
-        metadata.getBlockKeys().ifPresent(blockKeys -> {
-            final int nbKeys = blockKeys.size();
-            assert nbKeys % totalSize == 0;
-            final int nbStripes = nbKeys / totalSize;
-
-            for (int i = 0; i < nbStripes; i++) {
-                final int offset = i * totalSize;
-                final IntList subKeys = blockKeys.subList(offset, offset + totalSize);
-                final IntList availableBlocks = new IntArrayList(totalSize);
-                for (int j = 0; j < totalSize; j++) {
-                    if (storageBackend.isBlockAvailable(subKeys.getInt(j))) {
-                        availableBlocks.add(j);
-                    }
+        getRepairEngine().repair(Collections.singletonList(path));
+    }
+
+    /**
+     * Perform a repair operation on all files stored in the system. The stripes of all the files are repaired in
+     * parallel, see {@link #setRepairConcurrency(int)}.
+     */
+    public void repairAllFiles() {
+        getRepairEngine().repair(storageBackend.getAllFilePaths());
+    }
+
+    /**
+     * Repair the stripes that have blocks in containers lost by the storage backend. Unlike {@link #repairAllFiles()},
+     * the availability is checked once per container instead of once per block, and only the stripes found in the lost
+     * containers by the reverse index maintained on write are repaired. The cost of the repair is therefore
+     * proportional to the amount of data lost.
+     */
+    public void repairLostContainers() {
+        final LongList lostContainers = findLostContainers();
+        final List<ContainerIndex.StripeRange> ranges = new ArrayList<>();
+        for (int i = 0; i < lostContainers.size(); i++) {
+            ranges.addAll(containerIndex.get(lostContainers.getLong(i)));
+        }
+        log.log(Level.INFO, "{0} containers have been lost", lostContainers.size());
+        getRepairEngine().repairRanges(ranges);
+        for (int i = 0; i < lostContainers.size(); i++) {
+            containerIndex.remove(lostContainers.getLong(i));
+        }
+    }
+
+    /**
+     * Queue for a priority repair the stripes that have blocks in containers lost by the storage backend. Like
+     * {@link #repairLostContainers()}, the availability is checked once per container, and the stripes are found
+     * through the reverse index of the containers. Nothing else is fetched from the key-value store: the remaining
+     * redundancy of the stripes is computed from the lost containers. They are repaired once priority repair is
+     * enabled.
+     * @return The number of stripes queued
+     */
+    public int queueDamagedStripes() {
+        final LongList lostContainers = findLostContainers();
+        final LongSet lost = new LongOpenHashSet(lostContainers);
+        final int blocksPerContainer = storageBackend.getBlocksPerContainer();
+        final List<ContainerIndex.StripeRange> ranges = new ArrayList<>();
+        for (int i = 0; i < lostContainers.size(); i++) {
+            ranges.addAll(containerIndex.get(lostContainers.getLong(i)));
+        }
+
+        int queued = 0;
+        for (ContainerIndex.StripeRange range : ranges) {
+            final Lock lock = fileLocks.get(range.path).readLock();
+            lock.lock();
+            try {
+                final Optional<BlockKeyList> blockKeys = storageBackend.getFileMetadata(range.path).flatMap(FileMetadata::getBlockKeys);
+                if (!blockKeys.isPresent()) {
+                    continue;
                 }
-                if (availableBlocks.size() < totalSize) {
-                    final IntList erasedBlocks = IntArrayList.wrap(fillNotToRead(availableBlocks));
-                    try {
-                        final IntList toReadForDecode = erasureCode.locationsToReadForDecode(erasedBlocks);
-                        toReadForDecode.sort(null);
-                        Arrays.fill(dataBuffer, 0);
-                        for (Integer position : toReadForDecode) {
-                            dataBuffer[position] = storageBackend.retrieveBlock(subKeys.getInt(position)).orElse(0);
-                        }
-                        final int[] erasedValues = new int[erasedBlocks.size()];
-                        erasureCode.decode(dataBuffer, erasedBlocks.toIntArray(), erasedValues, toReadForDecode.toIntArray(), fillNotToRead(toReadForDecode));
-                        for (int j = 0; j < erasedValues.length; j++) {
-                            final int position = erasedBlocks.get(j);
-                            final int restoredValue = erasedValues[j];
-                            final int blockKey = storageBackend.storeBlock(restoredValue, position);
-                            subKeys.set(position, blockKey);
+                final int end = Math.min(range.end, blockKeys.get().getNbStripes());
+                for (int stripe = range.first; stripe < end; stripe++) {
+                    int nbErased = 0;
+                    for (int position = 0; position < totalSize; position++) {
+                        final long key = blockKeys.get().getKey(stripe, position);
+                        if (key != BlockKeyList.NO_KEY && lost.contains(key / blocksPerContainer)) {
+                            nbErased++;
                         }
-                    } catch (TooManyErasedLocations e) {
-                        // log.warning("The file cannot be repaired");
+                    }
+                    if (nbErased > 0 && repairQueue.offer(range.path, stripe, Math.max(0, paritySize - nbErased))) {
+                        queued++;
                     }
                 }
+            } finally {
+                lock.unlock();
             }
+        }
+        return queued;
+    }
 
-            storageBackend.flushAll();
+    /**
+     * Look up all the containers of the reverse index in the key-value store, with a single call to the storage
+     * backend. The availability index is not trusted, as the containers may have been lost after being written.
+     * @return The containers that are not available
+     */
+    private LongList findLostContainers() {
+        final long[] containers = containerIndex.getContainers();
+        final long[] firstKeys = new long[containers.length];
+        for (int i = 0; i < containers.length; i++) {
+            firstKeys[i] = containers[i] * storageBackend.getBlocksPerContainer();
+        }
+        final boolean[] available = new boolean[containers.length];
+        storageBackend.probeBlocksAvailable(firstKeys, available);
+
+        final LongList lostContainers = new LongArrayList();
+        for (int i = 0; i < containers.length; i++) {
+            if (!available[i]) {
+                lostContainers.add(containers[i]);
+            }
+        }
+        return lostContainers;
+    }
+
+    /**
+     * Repair in the background the damaged stripes found by reads and by {@link #queueDamagedStripes()}. The stripes
+     * closest to being lost are repaired first, then the most read ones, see {@link RepairQueue}. As many threads as
+     * set by {@link #setRepairConcurrency(int)} repair the queued stripes one at a time.
+     */
+    public synchronized void enablePriorityRepair() {
+        if (priorityRepairers != null) {
+            return;
+        }
+        final int threads = repairConcurrency;
+        final RepairEngine engine = getRepairEngine();
+        priorityRepairers = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "priority repairer");
+            thread.setDaemon(true);
+            return thread;
         });
+        for (int i = 0; i < threads; i++) {
+            priorityRepairers.execute(() -> drainRepairQueue(engine));
+        }
+        priorityRepair = true;
     }
 
     /**
-     * Perform a repair operation on all files stored in the system.
+     * Repair the queued stripes until interrupted. The repaired blocks are flushed whenever the queue is empty.
      */
-    public void repairAllFiles() {
-        final Collection<String> filePaths = storageBackend.getAllFilePaths();
-        filePaths.stream()
-                .map(storageBackend::getFileMetadata)
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .forEach(this::repairFile);
+    private void drainRepairQueue(RepairEngine engine) {
+        try {
+            while (true) {
+                final RepairQueue.Entry entry = repairQueue.take();
+                try {
+                    engine.repairStripe(entry.path, entry.stripe);
+                    if (repairQueue.getDepth() == 0) {
+                        storageBackend.flushAll();
+                    }
+                } catch (RuntimeException e) {
+                    log.log(Level.WARNING, "Unable to repair " + entry, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Store back the data blocks decoded by degraded reads, so that the next reads of the stripes do not have to
+     * decode them again. A background thread stores the blocks of all the stripes waiting at once, and updates the
+     * keys of each file under its write lock. Reads do not wait for it: the decoded blocks are discarded when
+     * {@link #READ_REPAIR_BACKLOG} stripes are already waiting. The erased parity positions are not decoded by reads,
+     * and are left to the other repairs.
+     */
+    public synchronized void enableReadRepair() {
+        if (readRepairer != null) {
+            return;
+        }
+        final BlockingQueue<DecodedStripe> queue = new ArrayBlockingQueue<>(READ_REPAIR_BACKLOG);
+        readRepairs = queue;
+        readRepairer = new Thread(() -> storeDecodedStripes(queue), "read repairer");
+        readRepairer.setDaemon(true);
+        readRepairer.start();
+    }
+
+    /**
+     * Cache the contents of the stripes decoded by reads, so that reading them again does not decode them again. The
+     * cached stripes of a file are invalidated when they are written or truncated, under its write lock.
+     * @param capacity The maximum memory used by the cached contents, in bytes
+     */
+    public synchronized void enableDecodedStripeCache(long capacity) {
+        stripeCache = new DecodedStripeCache(capacity, stripeCacheStatistics);
+    }
+
+    /**
+     * @return The counters of the cache of decoded stripes
+     */
+    public CacheStatistics getDecodedStripeCacheStatistics() {
+        return stripeCacheStatistics;
+    }
+
+    /**
+     * Remove stripes of a file from the cache of decoded stripes, if enabled
+     * @param first The first stripe
+     * @param end The stripe after the last one
+     */
+    private void invalidateStripes(String path, int first, int end) {
+        final DecodedStripeCache cache = stripeCache;
+        if (cache != null) {
+            cache.invalidate(path, first, end);
+        }
     }
 
     /**
-     * Internal operation. Correctly chunk the file.
-     * @param size The size of the read/write operation
+     * @return The damaged stripes waiting for a priority repair
+     */
+    public RepairQueue getRepairQueue() {
+        return repairQueue;
+    }
+
+    /**
+     * Set how many threads repair stripes at the same time. Each thread checks and repairs batches of
+     * {@link RepairEngine#STRIPES_PER_TASK} stripes.
+     * @param threads The number of threads, 1 by default
+     */
+    public synchronized void setRepairConcurrency(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The repair concurrency must be positive");
+        }
+        repairConcurrency = threads;
+        if (repairEngine != null) {
+            repairEngine.setConcurrency(threads);
+        }
+    }
+
+    private synchronized RepairEngine getRepairEngine() {
+        if (repairEngine == null) {
+            repairEngine = new RepairEngine(this, repairConcurrency, repairStatistics);
+        }
+        return repairEngine;
+    }
+
+    /**
+     * @return The progress and the counters of the repairs
+     */
+    public RepairStatistics getRepairStatistics() {
+        return repairStatistics;
+    }
+
+    /**
+     * @return The lock of a file. Operations on a file take its read lock, modifications take its write lock.
+     */
+    ReadWriteLock lockOf(String path) {
+        return fileLocks.get(path);
+    }
+
+    /**
+     * Make sure that a file has been written with the block size in use.
+     * @throws IllegalStateException If the block sizes differ
+     */
+    void checkBlockSize(String path, FileMetadata metadata) {
+        if (metadata.getBlockSize() != blockSize) {
+            throw new IllegalStateException("The file at " + path + " has been written with blocks of "
+                    + metadata.getBlockSize() + " bytes instead of " + blockSize);
+        }
+    }
+
+    /**
+     * Internal operation. Correctly chunk the file for reading.
+     * @param size The size of the read operation
      * @param offset The offset in the fileBuffer
-     * @param fileBuffer The buffer to read from/write to
+     * @param fileBuffer The buffer to write to
      * @param blockKeys The list of all block keys related to the file
-     * @param mode Read or Write
+     * @param context Scratch buffers of the read operation
+     * @throws TooManyErasedLocations
+     */
+    private void iterate(String path, int size, long offset, ByteBuffer fileBuffer, BlockKeyList blockKeys, StripeContext context) throws TooManyErasedLocations {
+        final int firstStripe = stripeOf(offset);
+        final int lastStripe = stripeOf(offset + size - 1);
+
+        for (int stripe = firstStripe; stripe <= lastStripe; stripe++) {
+            final long stripeOffset = (long) stripe * stripeDataSize;
+            final int from = (int) Math.max(offset - stripeOffset, 0);
+            final int to = (int) Math.min(offset + size - stripeOffset, stripeDataSize);
+
+            if (priorityRepair) {
+                repairQueue.touch(path, stripe);
+            }
+            readPart(path, blockKeys, stripe, fileBuffer, to - from, from, context);
+        }
+    }
+
+    /**
+     * Internal operation. Read a single stripe, and copy part of its data to the buffer with a single bulk put.
+     * Healthy stripes are copied without decoding. Neither path allocates, except for the decoding plan of a degraded
+     * stripe. Degraded stripes are queued for a priority repair and read-repaired, if enabled. Stripes that have
+     * never been written, in the holes of sparse files, read as zeros.
+     * @param path The path of the file
+     * @param blockKeys The list of all block keys related to the file
+     * @param stripe The index of the stripe
+     * @param outBuffer The buffer to write to, starting at its current position
+     * @param size How many bytes of the stripe to copy
+     * @param offset Index of the first byte of the stripe to copy
+     * @param context Scratch buffers of the read operation
+     * @throws TooManyErasedLocations
+     */
+    private void readPart(String path, BlockKeyList blockKeys, int stripe, ByteBuffer outBuffer, int size, int offset, StripeContext context) throws TooManyErasedLocations {
+        if (blockKeys.getKey(stripe, paritySize) == BlockKeyList.NO_KEY) {
+            Arrays.fill(context.stripeBytes, offset, offset + size, (byte) 0);
+            outBuffer.put(context.stripeBytes, offset, size);
+            return;
+        }
+
+        final DecodedStripeCache cache = stripeCache;
+        if (cache != null && cache.get(path, stripe, context.stripeBytes)) {
+            outBuffer.put(context.stripeBytes, offset, size);
+            return;
+        }
+
+        final int budget = hedgeBudget;
+        final boolean decoded;
+        if (budget > 0) {
+            decoded = readStripeHedged(path, blockKeys, stripe, budget, context);
+        } else if (!readDataBlocks(blockKeys, stripe, context)) {
+            findErasedBlocks(blockKeys, stripe, context.erasedBlocksIndices);
+            decodeStripe(blockKeys, stripe, context.erasedBlocksIndices, context);
+            onDegradedRead(path, blockKeys, stripe, context.erasedBlocksIndices, context);
+            decoded = true;
+        } else {
+            decoded = false;
+        }
+        if (decoded && cache != null) {
+            cache.put(path, stripe, context.stripeBytes);
+        }
+
+        outBuffer.put(context.stripeBytes, offset, size);
+    }
+
+    /**
+     * Read a stripe into context.stripeBytes in hedged mode, see {@link #enableHedgedReads(int, long)}.
+     * The containers of the requested positions are loaded into the read cache of the storage backend concurrently.
+     * Once stripeSize of them have arrived, the stripe is read from the cache, and decoded if needed, considering the
+     * positions still in flight as erased. The parity positions are requested from the last one, in the order
+     * {@link ErasureCode#locationsToReadForDecode(List)} picks them.
+     * @param budget How many parity positions to request when hedging
+     * @return Whether the stripe has been decoded
      * @throws TooManyErasedLocations
      */
-    private void iterate(int size, int offset, ByteBuffer fileBuffer, IntList blockKeys, Modes mode) throws TooManyErasedLocations {
-        final int firstLowerBoundary = previousBoundary(offset);
-        final int lastLowerBoundary = previousBoundary(offset + size);
-        final int blocksToDiscardBeginning = lowerBytesToDrop(offset);
-        final int blocksToDiscardEnd = higherBytesToDrop(offset + size);
-
-        for (int i = firstLowerBoundary; i <= lastLowerBoundary; i += totalSize) {
-            int offsetPart = 0;
-            int sizePart = stripeSize;
-            if (i == firstLowerBoundary) {
-                offsetPart += blocksToDiscardBeginning;
-                sizePart -= blocksToDiscardBeginning;
-            } else if (i == lastLowerBoundary) {
-                if (blocksToDiscardEnd == 0) {
+    private boolean readStripeHedged(String path, BlockKeyList blockKeys, int stripe, int budget, StripeContext context) throws TooManyErasedLocations {
+        hedgingStatistics.stripeRead();
+        // Written by the threads completing the requests, read once the position has been taken from arrivals
+        final boolean[] available = new boolean[totalSize];
+        final boolean[] requested = new boolean[totalSize];
+        final boolean[] arrived = new boolean[totalSize];
+        final BlockingQueue<Integer> arrivals = new LinkedBlockingQueue<>();
+        final List<CompletableFuture<Boolean>> requests = new ArrayList<>(stripeSize + budget);
+        for (int position = paritySize; position < totalSize; position++) {
+            requests.add(requestPosition(blockKeys, stripe, position, available, arrivals));
+            requested[position] = true;
+        }
+
+        final long hedgeTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(hedgeDelayMillis);
+        int nbInFlight = stripeSize;
+        int nbAvailable = 0;
+        boolean hedged = false;
+        try {
+            while (nbAvailable < stripeSize) {
+                if (!hedged && (nbInFlight + nbAvailable < stripeSize || System.nanoTime() - hedgeTime >= 0)) {
+                    hedged = true;
+                    hedgingStatistics.hedgeTriggered();
+                    for (int position = paritySize - 1; position >= paritySize - budget; position--) {
+                        requests.add(requestPosition(blockKeys, stripe, position, available, arrivals));
+                        requested[position] = true;
+                    }
+                    nbInFlight += budget;
+                }
+                if (nbInFlight == 0) {
                     break;
-                } else {
-                    sizePart -= blocksToDiscardEnd;
+                }
+
+                final Integer position = hedged ? arrivals.take() : arrivals.poll(hedgeTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (position != null) {
+                    nbInFlight--;
+                    arrived[position] = true;
+                    if (available[position]) {
+                        nbAvailable++;
+                    }
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            requests.forEach(request -> request.cancel(false));
+        }
+
+        boolean dataArrived = true;
+        for (int position = paritySize; position < totalSize; position++) {
+            dataArrived &= arrived[position] && available[position];
+        }
+        if (dataArrived && readDataBlocks(blockKeys, stripe, context)) {
+            return false;
+        }
 
-            ByteBuffer buffer = fileBuffer.slice();
-            if (i < lastLowerBoundary) {
-                fileBuffer.position(fileBuffer.position() + sizePart);
+        if (nbInFlight > 0) {
+            hedgingStatistics.stragglerBypassed();
+        }
+        final IntList erasedIndices = context.erasedBlocksIndices;
+        erasedIndices.clear();
+        // The positions still in flight are late, not lost
+        final IntList unavailable = new IntArrayList();
+        for (int position = 0; position < totalSize; position++) {
+            if (requested[position] && !(arrived[position] && available[position])) {
+                erasedIndices.add(position);
             }
-            final IntList keysSublist = blockKeys.subList(i, i + totalSize);
-            if (mode == Modes.READ_FILE) {
-                readPart(keysSublist, buffer, sizePart, offsetPart);
-            } else if (mode == Modes.WRITE_FILE) {
-                writePart(keysSublist, buffer, sizePart, offsetPart);
+            if (arrived[position] && !available[position]) {
+                unavailable.add(position);
             }
         }
+        decodeStripe(blockKeys, stripe, erasedIndices, context);
+        onDegradedRead(path, blockKeys, stripe, unavailable, context);
+        return true;
     }
 
-    private synchronized void readPart(IntList blockKeys, ByteBuffer outBuffer, int size, int offset) throws TooManyErasedLocations {
-        erasedBlocksIndices.clear();
+    /**
+     * Queue a stripe found degraded by a read for a priority repair, and store back its decoded data blocks, if
+     * enabled
+     * @param unavailable The positions of the stripe known to be unavailable
+     * @param context Scratch buffers of the read operation, holding the decoded blocks
+     */
+    private void onDegradedRead(String path, BlockKeyList blockKeys, int stripe, IntList unavailable, StripeContext context) {
+        if (unavailable.isEmpty()) {
+            return;
+        }
+        if (priorityRepair) {
+            repairQueue.offer(path, stripe, Math.max(0, paritySize - unavailable.size()));
+        }
+
+        final BlockingQueue<DecodedStripe> queue = readRepairs;
+        if (queue != null) {
+            // Reads only decode the data positions
+            final IntList positions = new IntArrayList(unavailable.size());
+            for (int i = 0; i < unavailable.size(); i++) {
+                final int position = unavailable.getInt(i);
+                if (position >= paritySize && context.present[position]) {
+                    positions.add(position);
+                }
+            }
+            if (positions.isEmpty()) {
+                return;
+            }
+            final long[] keys = new long[totalSize];
+            for (int position = 0; position < totalSize; position++) {
+                keys[position] = blockKeys.getKey(stripe, position);
+            }
+            final byte[][] values = new byte[positions.size()][];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = context.blocks[positions.getInt(i)].clone();
+            }
+            if (!queue.offer(new DecodedStripe(path, stripe, keys, positions, values))) {
+                repairStatistics.readRepairDiscarded();
+            }
+        }
+    }
+
+    /**
+     * Store the decoded blocks put in a queue by degraded reads, in batches, until read-repair is disabled and the
+     * queue is empty
+     */
+    private void storeDecodedStripes(BlockingQueue<DecodedStripe> queue) {
+        final List<DecodedStripe> batch = new ArrayList<>();
+        while (readRepairs == queue || !queue.isEmpty()) {
+            try {
+                final DecodedStripe first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+            batch.sort(Comparator.comparing(decoded -> decoded.path));
+
+            int from = 0;
+            while (from < batch.size()) {
+                int to = from + 1;
+                while (to < batch.size() && batch.get(to).path.equals(batch.get(from).path)) {
+                    to++;
+                }
+                storeDecodedBlocks(batch.get(from).path, batch.subList(from, to));
+                from = to;
+            }
+            if (!writeBack) {
+                storageBackend.flushAll();
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Store the blocks decoded by degraded reads of a file, and update its keys, under its write lock. Nothing is
+     * stored for the stripes modified since they were read, for instance by an earlier read-repair.
+     */
+    private void storeDecodedBlocks(String path, List<DecodedStripe> stripes) {
+        final Lock lock = fileLocks.get(path).writeLock();
+        lock.lock();
+        try {
+            final Optional<FileMetadata> metadata = storageBackend.getFileMetadata(path);
+            final Optional<BlockKeyList> blockKeys = metadata.flatMap(FileMetadata::getBlockKeys);
+            if (!blockKeys.isPresent()) {
+                return;
+            }
+            boolean stored = false;
+            for (DecodedStripe decoded : stripes) {
+                if (!decoded.isCurrent(blockKeys.get())) {
+                    continue;
+                }
+                for (int i = 0; i < decoded.values.length; i++) {
+                    final int position = decoded.positions.getInt(i);
+                    final long blockKey = storageBackend.storeBlock(decoded.values[i], 0, position);
+                    blockKeys.get().setKey(decoded.stripe, position, blockKey);
+                    indexBlock(path, decoded.stripe, blockKey);
+                }
+                repairStatistics.stripeReadRepaired(decoded.values.length);
+                stored = true;
+            }
+            if (stored) {
+                storageBackend.setFileMetadata(path, metadata.get());
+            }
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Unable to store the decoded blocks of " + path, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Start loading the container of a position of a stripe. Once it has arrived, the position is put in arrivals.
+     */
+    private CompletableFuture<Boolean> requestPosition(BlockKeyList blockKeys, int stripe, int position, boolean[] available, BlockingQueue<Integer> arrivals) {
+        final CompletableFuture<Boolean> request = storageBackend.loadBlockAsync(blockKeys.getKey(stripe, position));
+        request.whenComplete((found, error) -> {
+            available[position] = error == null && found;
+            arrivals.add(position);
+        });
+        return request;
+    }
 
-        final Iterator<Boolean> blocksAvailableIterator = blockKeys.stream().map(storageBackend::isBlockAvailable).iterator();
+    /**
+     * Copy the data blocks of a stripe to context.stripeBytes. The blocks are retrieved with a single batched lookup,
+     * so that the containers of all the positions are fetched concurrently.
+     * @return false if a data block is unavailable, in which case the stripe needs to be decoded
+     */
+    private boolean readDataBlocks(BlockKeyList blockKeys, int stripe, StripeContext context) {
+        final long[] keys = context.dataKeys;
+        final boolean[] found = context.dataFound;
+        for (int i = 0; i < stripeSize; i++) {
+            keys[i] = blockKeys.getKey(stripe, paritySize + i);
+        }
+        storageBackend.retrieveBlocks(keys, context.stripeBytes, found);
+        for (boolean blockFound : found) {
+            if (!blockFound) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy some blocks of a stripe to context.blocks, with a single batched lookup.
+     * @param blockKeys The list of all block keys related to the file
+     * @param stripe The index of the stripe
+     * @param positions The positions to retrieve
+     * @param context Scratch buffers of the current operation
+     * @param missing Filled with the positions that could not be retrieved
+     */
+    private void retrieveStripeBlocks(BlockKeyList blockKeys, int stripe, IntList positions, StripeContext context, IntList missing) {
+        final long[] keys = new long[positions.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = blockKeys.getKey(stripe, positions.getInt(i));
+        }
+        final byte[] values = new byte[keys.length * blockSize];
+        final boolean[] found = new boolean[keys.length];
+        storageBackend.retrieveBlocks(keys, values, found);
+
+        for (int i = 0; i < keys.length; i++) {
+            final int position = positions.getInt(i);
+            if (found[i]) {
+                System.arraycopy(values, i * blockSize, context.blocks[position], 0, blockSize);
+            } else {
+                missing.add(position);
+            }
+        }
+    }
+
+    private void findErasedBlocks(BlockKeyList blockKeys, int stripe, IntList erasedBlocksIndices) {
+        erasedBlocksIndices.clear();
         for (int i = 0; i < totalSize; i++) {
-            if (!blocksAvailableIterator.next()) {
+            if (!storageBackend.isBlockAvailable(blockKeys.getKey(stripe, i))) {
                 erasedBlocksIndices.add(i);
             }
         }
+    }
 
-        final Stream<Byte> partData = decodeFileData(blockKeys, erasedBlocksIndices);
+    /**
+     * Internal operation. Encode and store all the stripes touched by a write operation at once.
+     * The stripes are laid out as one row per position, holding the blocks of all the stripes one after the other, so
+     * that the erasure code can process the whole write with a single call to
+     * {@link ErasureCode#encodeBulk(byte[][], byte[][])}.
+     * @param path The path of the file
+     * @param blockKeys The list of all block keys related to the file
+     * @param fileBuffer The buffer to read from, starting at its current position
+     * @param size The size of the write operation, must be positive
+     * @param offset At which byte index the writing starts (relative to the complete file)
+     */
+    private void writeStripes(String path, BlockKeyList blockKeys, ByteBuffer fileBuffer, int size, long offset) {
+        final int firstStripe = stripeOf(offset);
+        final int lastStripe = stripeOf(offset + size - 1);
+        final int nbStripes = lastStripe - firstStripe + 1;
+        final byte[][] data = new byte[stripeSize][nbStripes * blockSize];
+        final byte[][] parity = new byte[paritySize][nbStripes * blockSize];
 
-        partData.skip(offset).limit(size).forEachOrdered(outBuffer::put);
-    }
+        restorePartialStripes(blockKeys, data, firstStripe, lastStripe, size, offset);
 
-    private synchronized void writePart(IntList blockKeys, ByteBuffer fileBuffer, int size, int offset) {
+        final byte[] contents = new byte[size];
+        fileBuffer.get(contents, 0, size);
+        final long firstStripeOffset = (long) firstStripe * stripeDataSize;
+        for (int k = 0; k < size; ) {
+            // Index of the byte relative to the first stripe of the write
+            final long index = offset - firstStripeOffset + k;
+            final int stripeIndex = (int) (index % stripeDataSize);
+            final int column = (int) (index / stripeDataSize);
+            final int indexInBlock = stripeIndex % blockSize;
+            final int length = Math.min(blockSize - indexInBlock, size - k);
+            System.arraycopy(contents, k, data[stripeIndex / blockSize], column * blockSize + indexInBlock, length);
+            k += length;
+        }
+
+        // Store the data blocks first, as encodeBulk is allowed to modify its inputs
+        final long[] keys = new long[nbStripes];
         for (int i = 0; i < stripeSize; i++) {
-            if (i < offset || i >= offset + size) { // Restore existing data
-                final int key = blockKeys.getInt(i + paritySize);
-                if (key != -1) {
-                    stripeBuffer[i] = storageBackend.retrieveBlock(key).orElse(0);
+            storageBackend.storeBlocks(data[i], i + paritySize, keys);
+            setKeys(path, blockKeys, firstStripe, i + paritySize, keys);
+        }
+
+        erasureCode.encodeBulk(data, parity);
+
+        for (int i = 0; i < paritySize; i++) {
+            storageBackend.storeBlocks(parity[i], i, keys);
+            setKeys(path, blockKeys, firstStripe, i, keys);
+        }
+    }
+
+    /**
+     * Set the keys of the blocks of a given position, in consecutive stripes, and index their containers.
+     */
+    private void setKeys(String path, BlockKeyList blockKeys, int firstStripe, int position, long[] keys) {
+        final int blocksPerContainer = storageBackend.getBlocksPerContainer();
+        int runStart = 0;
+        for (int j = 0; j < keys.length; j++) {
+            blockKeys.setKey(firstStripe + j, position, keys[j]);
+            if (j + 1 == keys.length || keys[j + 1] / blocksPerContainer != keys[runStart] / blocksPerContainer) {
+                containerIndex.add(keys[runStart] / blocksPerContainer, path, firstStripe + runStart, firstStripe + j + 1);
+                runStart = j + 1;
+            }
+        }
+    }
+
+    /**
+     * Index the container of a block stored outside of a write operation
+     */
+    void indexBlock(String path, int stripe, long key) {
+        containerIndex.add(key / storageBackend.getBlocksPerContainer(), path, stripe, stripe + 1);
+    }
+
+    /**
+     * Fill the data blocks of the first and last stripes of a write operation with their existing contents, when the
+     * write only covers them partially. The data blocks of both stripes are fetched with a single batched lookup.
+     * Stripes with unavailable data blocks are decoded using {@link #restoreStripe(BlockKeyList, int, byte[][], int, StripeContext)}.
+     * @param blockKeys The list of all block keys related to the file
+     * @param data The data blocks, laid out as in {@link #writeStripes(String, BlockKeyList, ByteBuffer, int, long)}
+     */
+    private void restorePartialStripes(BlockKeyList blockKeys, byte[][] data, int firstStripe, int lastStripe, int size, long offset) {
+        final IntList partialStripes = new IntArrayList(2);
+        if (offset % stripeDataSize != 0) {
+            partialStripes.add(firstStripe);
+        }
+        if ((offset + size) % stripeDataSize != 0 && (partialStripes.isEmpty() || lastStripe != firstStripe)) {
+            partialStripes.add(lastStripe);
+        }
+        // Stripes that have never been written do not need to be restored
+        partialStripes.removeIf(stripe -> blockKeys.getKey(stripe, paritySize) == BlockKeyList.NO_KEY);
+        if (partialStripes.isEmpty()) {
+            return;
+        }
+
+        final long[] keys = new long[partialStripes.size() * stripeSize];
+        for (int s = 0; s < partialStripes.size(); s++) {
+            final int stripe = partialStripes.getInt(s);
+            for (int i = 0; i < stripeSize; i++) {
+                keys[s * stripeSize + i] = blockKeys.getKey(stripe, paritySize + i);
+            }
+        }
+        final byte[] values = new byte[keys.length * blockSize];
+        final boolean[] found = new boolean[keys.length];
+        storageBackend.retrieveBlocks(keys, values, found);
+
+        StripeContext context = null;
+        for (int s = 0; s < partialStripes.size(); s++) {
+            final int stripe = partialStripes.getInt(s);
+            final int column = stripe - firstStripe;
+            boolean complete = true;
+            for (int i = 0; i < stripeSize && complete; i++) {
+                final int index = s * stripeSize + i;
+                if (found[index]) {
+                    System.arraycopy(values, index * blockSize, data[i], column * blockSize, blockSize);
                 } else {
-                    stripeBuffer[i] = 0;
+                    complete = false;
                 }
-            } else if (fileBuffer.hasRemaining()) {
-                stripeBuffer[i] = Byte.toUnsignedInt(fileBuffer.get());
             }
-        }
 
-        erasureCode.encode(stripeBuffer, parityBuffer);
+            if (!complete) {
+                if (context == null) {
+                    context = new StripeContext();
+                }
+                restoreStripe(blockKeys, stripe, data, column, context);
+            }
+        }
+    }
 
-        for (int i = 0; i < paritySize; i++) {
-            int key = storageBackend.storeBlock(parityBuffer[i], i);
-            blockKeys.set(i, key);
+    /**
+     * Fill a column of the given data blocks with the existing contents of a stripe, decoding it if needed.
+     * Leaves the column untouched if the stripe has never been written, or if it cannot be decoded anymore.
+     * @param blockKeys The list of all block keys related to the file
+     * @param stripe The index of the stripe
+     * @param data The data blocks, laid out as in {@link #writeStripes(String, BlockKeyList, ByteBuffer, int, long)}
+     * @param column The column to fill
+     * @param context Scratch buffers of the write operation
+     */
+    private void restoreStripe(BlockKeyList blockKeys, int stripe, byte[][] data, int column, StripeContext context) {
+        if (blockKeys.getKey(stripe, paritySize) == BlockKeyList.NO_KEY) {
+            return;
         }
-        for (int i = 0; i < stripeSize; i++) {
-            int key = storageBackend.storeBlock(stripeBuffer[i], i + paritySize);
-            blockKeys.set(i + paritySize, key);
+
+        final byte[] stripeBytes = context.stripeBytes;
+        try {
+            if (!readDataBlocks(blockKeys, stripe, context)) {
+                findErasedBlocks(blockKeys, stripe, context.erasedBlocksIndices);
+                decodeStripe(blockKeys, stripe, context.erasedBlocksIndices, context);
+            }
+            for (int i = 0; i < stripeSize; i++) {
+                System.arraycopy(stripeBytes, i * blockSize, data[i], column * blockSize, blockSize);
+            }
+        } catch (TooManyErasedLocations e) {
+            log.warning("Unable to restore a partially overwritten stripe");
         }
     }
 
-    protected Stream<Byte> decodeFileData(IntList blockKeys, IntList erasedIndices) throws TooManyErasedLocations {
+    /**
+     * Decode the data of a degraded stripe into context.stripeBytes.
+     * @param blockKeys The list of all block keys related to the file
+     * @param stripe The index of the stripe
+     * @param erasedIndices The positions known to be unavailable. Positions found missing while reading are added, and
+     *                      the stripe is decoded again without them.
+     * @param context Scratch buffers of the current operation
+     * @throws TooManyErasedLocations If too many positions are missing to decode the stripe
+     */
+    protected void decodeStripe(BlockKeyList blockKeys, int stripe, IntList erasedIndices, StripeContext context) throws TooManyErasedLocations {
+        final byte[][] blocks = context.blocks;
+        final boolean[] present = context.present;
+        final IntList missing = new IntArrayList();
         IntList toReadForDecode;
-        boolean retry;
         do {
-            retry = false;
             toReadForDecode = erasureCode.locationsToReadForDecode(erasedIndices);
             toReadForDecode.sort(null);
 
-            for (int index : toReadForDecode) {
-                final int key = blockKeys.getInt(index);
-                Optional<Integer> block = storageBackend.retrieveBlock(key);
-                if (block.isPresent()) {
-                    dataBuffer[index] = block.get();
-                } else {
-                    erasedIndices.add(index);
-                    retry = true;
-                    break;
+            missing.clear();
+            retrieveStripeBlocks(blockKeys, stripe, toReadForDecode, context, missing);
+            erasedIndices.addAll(missing);
+        } while (!missing.isEmpty());
+
+        Arrays.fill(present, false);
+        for (int m = 0; m < toReadForDecode.size(); m++) {
+            present[toReadForDecode.getInt(m)] = true;
+        }
+
+        final int[] indicesToRecover = locationsToRecover(erasedIndices);
+        if (indicesToRecover.length > 0) {
+            final byte[][] recoveredBlocks = Arrays.copyOf(context.recoveredBlocks, indicesToRecover.length);
+            erasureCode.decodeBulk(blocks, recoveredBlocks, indicesToRecover, convertToIntArray(toReadForDecode), fillNotToRead(toReadForDecode));
+
+            // Restore erased values
+            for (int i = 0; i < indicesToRecover.length; i++) {
+                final int index = indicesToRecover[i];
+                if (index >= paritySize) {
+                    System.arraycopy(recoveredBlocks[i], 0, blocks[index], 0, blockSize);
+                    present[index] = true;
                 }
             }
-        } while (retry);
-
-        int[] indicesToRecover = erasedIndices.parallelStream().filter(index -> index >= paritySize).mapToInt(Integer::intValue).toArray();
+        }
 
-        final int[] recoveredValues = new int[indicesToRecover.length];
-        erasureCode.decode(dataBuffer, indicesToRecover, recoveredValues, convertToIntArray(toReadForDecode), fillNotToRead(toReadForDecode));
+        final IntList notPresent = new IntArrayList();
+        for (int index = paritySize; index < totalSize; index++) {
+            if (!present[index]) {
+                notPresent.add(index);
+            }
+        }
+        if (!notPresent.isEmpty()) {
+            missing.clear();
+            retrieveStripeBlocks(blockKeys, stripe, notPresent, context, missing);
+            if (!missing.isEmpty()) {
+                // Decode again, these blocks being erased too
+                erasedIndices.addAll(missing);
+                decodeStripe(blockKeys, stripe, erasedIndices, context);
+                return;
+            }
+        }
 
-        // Restore erased values
-        for (int i = 0; i < recoveredValues.length; i++) {
-            dataBuffer[indicesToRecover[i]] = recoveredValues[i];
+        final byte[] stripeBytes = context.stripeBytes;
+        for (int i = 0; i < stripeSize; i++) {
+            System.arraycopy(blocks[i + paritySize], 0, stripeBytes, i * blockSize, blockSize);
         }
+    }
 
-        return Arrays.stream(dataBuffer).skip(paritySize).boxed().map(Integer::byteValue);
+    /**
+     * Select the erased locations to pass to the erasure code for decoding. Only the data locations are needed.
+     * @param erasedIndices The erased locations of a stripe
+     * @return The locations to recover
+     */
+    protected int[] locationsToRecover(IntList erasedIndices) {
+        final IntList indicesToRecover = new IntArrayList(erasedIndices.size());
+        for (int i = 0; i < erasedIndices.size(); i++) {
+            final int index = erasedIndices.getInt(i);
+            if (index >= paritySize) {
+                indicesToRecover.add(index);
+            }
+        }
+        return indicesToRecover.toIntArray();
     }
 
     protected int[] fillNotToRead(IntList toReadForDecode) {
@@ -345,34 +1291,90 @@ public class FileEncoderDecoder {
         return notToRead;
     }
 
-    private static int[] convertToIntArray(IntList integerCollection) {
-        return integerCollection.toIntArray();
-    }
+    /**
+     * The data blocks decoded by a degraded read of a stripe, waiting to be stored back
+     */
+    private final class DecodedStripe {
+        private final String path;
+        private final int stripe;
+        /**
+         * The keys of the stripe when it was read
+         */
+        private final long[] keys;
+        private final IntList positions;
+        /**
+         * The decoded blocks, in the order of positions
+         */
+        private final byte[][] values;
+
+        private DecodedStripe(String path, int stripe, long[] keys, IntList positions, byte[][] values) {
+            this.path = path;
+            this.stripe = stripe;
+            this.keys = keys;
+            this.positions = positions;
+            this.values = values;
+        }
 
-    int nextBoundary(int index) {
-        return computeBoundary(Math::ceil, index);
+        /**
+         * @return Whether the stripe still has the keys it had when it was read
+         */
+        private boolean isCurrent(BlockKeyList blockKeys) {
+            if (stripe >= blockKeys.getNbStripes()) {
+                return false;
+            }
+            for (int position = 0; position < totalSize; position++) {
+                if (blockKeys.getKey(stripe, position) != keys[position]) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
-    int previousBoundary(int index) {
-        return computeBoundary(Math::floor, index);
+    /**
+     * Scratch buffers used to decode stripes. Each operation has its own instance, so that concurrent operations never
+     * share them. Read operations take theirs from a pool, to avoid allocating.
+     */
+    protected final class StripeContext {
+        protected final IntList erasedBlocksIndices = new IntArrayList();
+        /**
+         * One block per position of the stripe
+         */
+        protected final byte[][] blocks = new byte[totalSize][blockSize];
+        protected final byte[][] recoveredBlocks = new byte[totalSize][blockSize];
+        /**
+         * Whether each entry of blocks holds the contents of its position
+         */
+        protected final boolean[] present = new boolean[totalSize];
+        /**
+         * The decoded data of the current stripe
+         */
+        protected final byte[] stripeBytes = new byte[stripeDataSize];
+        /**
+         * Keys of the data blocks of the current stripe, and whether each of them has been found
+         */
+        private final long[] dataKeys = new long[stripeSize];
+        private final boolean[] dataFound = new boolean[stripeSize];
     }
 
-    private int computeBoundary(Function<Double, Double> mathFunction, int index) {
-        return (int) Math.round(mathFunction.apply(index / (double) stripeSize) * totalSize);
+    private static int[] convertToIntArray(IntList integerCollection) {
+        return integerCollection.toIntArray();
     }
 
-    int lowerBytesToDrop(int index) {
-        return index % stripeSize;
+    /**
+     * Compute the stripe containing a byte of a file.
+     * @throws ArithmeticException If the file is too large to be indexed
+     */
+    int stripeOf(long index) {
+        return Math.toIntExact(index / stripeDataSize);
     }
 
-    int higherBytesToDrop(int index) {
-        final int lowerBytesToDrop = lowerBytesToDrop(index);
-        if (index == 0) {
-            return stripeSize;
-        } else if (lowerBytesToDrop == 0) {
-            return 0;
-        }
-        return stripeSize - lowerBytesToDrop;
+    /**
+     * Compute the number of stripes needed to hold a given amount of bytes.
+     * @throws ArithmeticException If the file is too large to be indexed
+     */
+    int stripeCount(long size) {
+        return Math.toIntExact((size + stripeDataSize - 1) / stripeDataSize);
     }
 
     @Override
@@ -380,6 +1382,7 @@ public class FileEncoderDecoder {
         return "FileEncoderDecoder{" +
                 "storageBackend=" + storageBackend +
                 ", erasureCode=" + erasureCode +
+                ", blockSize=" + blockSize +
                 '}';
     }
 }
@@ -0,0 +1,61 @@
+package ch.unine.vauchers.erasuretester.erasure;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the hedged reads of a {@link FileEncoderDecoder}. Thread-safe.
+ */
+public class HedgingStatistics {
+    private final LongAdder stripesRead = new LongAdder();
+    private final LongAdder hedgesTriggered = new LongAdder();
+    private final LongAdder stragglersBypassed = new LongAdder();
+
+    void stripeRead() {
+        stripesRead.increment();
+    }
+
+    void hedgeTriggered() {
+        hedgesTriggered.increment();
+    }
+
+    void stragglerBypassed() {
+        stragglersBypassed.increment();
+    }
+
+    /**
+     * @return The number of stripes read in hedged mode
+     */
+    public long getStripesRead() {
+        return stripesRead.sum();
+    }
+
+    /**
+     * @return The number of stripes for which parity positions have been requested, because data positions were late
+     * or unavailable
+     */
+    public long getHedgesTriggered() {
+        return hedgesTriggered.sum();
+    }
+
+    /**
+     * @return The number of stripes decoded without waiting for some of the requested positions
+     */
+    public long getStragglersBypassed() {
+        return stragglersBypassed.sum();
+    }
+
+    public void reset() {
+        stripesRead.reset();
+        hedgesTriggered.reset();
+        stragglersBypassed.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "HedgingStatistics{" +
+                "stripesRead=" + getStripesRead() +
+                ", hedgesTriggered=" + getHedgesTriggered() +
+                ", stragglersBypassed=" + getStragglersBypassed() +
+                '}';
+    }
+}
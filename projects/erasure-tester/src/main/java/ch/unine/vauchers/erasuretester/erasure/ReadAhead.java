@@ -0,0 +1,74 @@
+package ch.unine.vauchers.erasuretester.erasure;
+
+/**
+ * Read-ahead state of an open file. Thread-safe.
+ * <br/>
+ * A read starting where the previous one ended is sequential. Each sequential read prefetches the contents following
+ * it, see {@link FileEncoderDecoder#prefetch(String, long, long)}, so that the containers are already in the read cache
+ * when the reader reaches them. The window starts at one container per data position, and doubles with each
+ * sequential read, up to {@link FileEncoderDecoder#getReadAheadMaxWindow()}. Any other read closes the window.
+ * <br/>
+ * Does nothing unless read-ahead has been enabled with {@link FileEncoderDecoder#enableReadAhead(long)}.
+ */
+public class ReadAhead {
+    private final FileEncoderDecoder encdec;
+    /**
+     * Where the next sequential read starts, or -1 before the first read
+     */
+    private long expectedOffset = -1;
+    /**
+     * Current window, in bytes
+     */
+    private long window;
+    /**
+     * Where the prefetched contents end
+     */
+    private long prefetchedUntil;
+
+    ReadAhead(FileEncoderDecoder encdec) {
+        this.encdec = encdec;
+    }
+
+    /**
+     * Called before each read of the file. Prefetches the contents following the read if it is sequential.
+     * @param path String uniquely identifying the file
+     * @param offset Where the read starts
+     * @param size The size of the read, in bytes
+     */
+    public void onRead(String path, long offset, long size) {
+        final long maxWindow = encdec.getReadAheadMaxWindow();
+        if (maxWindow == 0) {
+            return;
+        }
+
+        final long end = offset + size;
+        final long from;
+        final long to;
+        synchronized (this) {
+            if (offset != expectedOffset) {
+                expectedOffset = end;
+                window = 0;
+                prefetchedUntil = end;
+                return;
+            }
+            expectedOffset = end;
+            window = window == 0 ? Math.min(encdec.getReadAheadMinWindow(), maxWindow) : Math.min(window * 2, maxWindow);
+            from = Math.max(prefetchedUntil, end);
+            to = end + window;
+            if (to <= from) {
+                return;
+            }
+            prefetchedUntil = to;
+        }
+        encdec.prefetch(path, from, to - from);
+    }
+
+    /**
+     * Forget the previous reads, e.g. when the file is opened again
+     */
+    public synchronized void reset() {
+        expectedOffset = -1;
+        window = 0;
+        prefetchedUntil = 0;
+    }
+}
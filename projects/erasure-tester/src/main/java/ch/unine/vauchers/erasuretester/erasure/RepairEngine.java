@@ -0,0 +1,402 @@
+package ch.unine.vauchers.erasuretester.erasure;
+
+import ch.unine.vauchers.erasuretester.backend.BlockKeyList;
+import ch.unine.vauchers.erasuretester.backend.FileMetadata;
+import ch.unine.vauchers.erasuretester.backend.StorageBackend;
+import ch.unine.vauchers.erasuretester.erasure.ContainerIndex.StripeRange;
+import ch.unine.vauchers.erasuretester.erasure.codes.ErasureCode;
+import ch.unine.vauchers.erasuretester.erasure.codes.TooManyErasedLocations;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Repairs the stripes of many files in parallel, with a bounded number of threads.
+ * <br/>
+ * The stripes of the files are split into tasks of {@link #STRIPES_PER_TASK} stripes. A task copies the keys of its
+ * stripes under the read lock of the file, asks the key-value store for their availability with a single call to the
+ * storage backend, as the availability index may not know about the containers lost since they were written, fetches
+ * the blocks needed to decode all the damaged stripes at once, and decodes them without holding any lock. The
+ * repaired blocks are then stored under the write lock of the file. Stripes that have been overwritten or truncated
+ * in the meantime are left as they are, as their repaired blocks are stale. Readers of the file are therefore only
+ * blocked while the keys are updated.
+ * <br/>
+ * The threads are kept from one repair to the next, and stop after being idle for a while. Call {@link #close()} once
+ * the engine is not needed anymore.
+ */
+class RepairEngine {
+    static final int STRIPES_PER_TASK = 256;
+
+    private final FileEncoderDecoder fileEncoderDecoder;
+    private final StorageBackend storageBackend;
+    private final ErasureCode erasureCode;
+    private final int totalSize;
+    private final int blockSize;
+    private final RepairStatistics statistics;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Constructor
+     * @param fileEncoderDecoder The files to repair
+     * @param concurrency The maximum number of threads repairing stripes at the same time
+     * @param statistics Updated with the progress of the repairs
+     */
+    RepairEngine(FileEncoderDecoder fileEncoderDecoder, int concurrency, RepairStatistics statistics) {
+        this.fileEncoderDecoder = fileEncoderDecoder;
+        this.storageBackend = fileEncoderDecoder.storageBackend;
+        this.erasureCode = fileEncoderDecoder.erasureCode;
+        this.totalSize = fileEncoderDecoder.totalSize;
+        this.blockSize = fileEncoderDecoder.blockSize;
+        this.statistics = statistics;
+        executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "repairer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Change the maximum number of threads repairing stripes at the same time. The repairs in progress are not
+     * affected.
+     * @param concurrency The number of threads
+     */
+    synchronized void setConcurrency(int concurrency) {
+        if (concurrency > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(concurrency);
+            executor.setCorePoolSize(concurrency);
+        } else {
+            executor.setCorePoolSize(concurrency);
+            executor.setMaximumPoolSize(concurrency);
+        }
+    }
+
+    /**
+     * Stop the threads. The repairs in progress are interrupted.
+     */
+    void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Repair files, and wait until all of them have been repaired. The repaired blocks are flushed before returning.
+     * @param paths The paths of the files. Files that do not exist are ignored.
+     */
+    void repair(Collection<String> paths) {
+        final List<StripeRange> ranges = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            final int nbStripes = stripeCountOf(path);
+            if (nbStripes > 0) {
+                ranges.add(new StripeRange(path, 0, nbStripes));
+            }
+        }
+        repairRanges(ranges);
+    }
+
+    /**
+     * Repair ranges of stripes, and wait until all of them have been repaired. The repaired blocks are flushed before
+     * returning.
+     * @param ranges The ranges. They may overlap. Stripes that do not exist are ignored.
+     */
+    void repairRanges(List<StripeRange> ranges) {
+        statistics.repairStarted();
+        final List<Future<?>> tasks = new ArrayList<>();
+        try {
+            for (StripeRange range : merge(ranges)) {
+                statistics.stripesScheduled(range.end - range.first);
+                for (int first = range.first; first < range.end; first += STRIPES_PER_TASK) {
+                    final int from = first;
+                    final int to = Math.min(range.end, first + STRIPES_PER_TASK);
+                    tasks.add(executor.submit(() -> repairStripes(range.path, from, to)));
+                }
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            // Only does something if the repair has failed
+            tasks.forEach(task -> task.cancel(true));
+            storageBackend.flushAll();
+            statistics.repairFinished();
+        }
+    }
+
+    /**
+     * Check and repair a single stripe in the calling thread. The repaired blocks are not flushed.
+     * @param path The path of the file
+     * @param stripe The index of the stripe. Stripes that do not exist are ignored.
+     */
+    void repairStripe(String path, int stripe) {
+        statistics.stripesScheduled(1);
+        repairStripes(path, stripe, stripe + 1);
+    }
+
+    /**
+     * Merge the overlapping ranges of stripes of each file, so that no stripe is repaired twice
+     */
+    private static List<StripeRange> merge(List<StripeRange> ranges) {
+        final List<StripeRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparing((StripeRange range) -> range.path).thenComparingInt(range -> range.first));
+        final List<StripeRange> merged = new ArrayList<>(sorted.size());
+        for (StripeRange range : sorted) {
+            final StripeRange last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && last.path.equals(range.path) && range.first <= last.end) {
+                merged.set(merged.size() - 1, new StripeRange(range.path, last.first, Math.max(last.end, range.end)));
+            } else {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return The number of stripes of a file, 0 if it does not exist
+     */
+    private int stripeCountOf(String path) {
+        final Lock lock = fileEncoderDecoder.lockOf(path).readLock();
+        lock.lock();
+        try {
+            final Optional<FileMetadata> metadata = storageBackend.getFileMetadata(path);
+            if (!metadata.isPresent()) {
+                return 0;
+            }
+            fileEncoderDecoder.checkBlockSize(path, metadata.get());
+            return metadata.get().getBlockKeys().map(BlockKeyList::getNbStripes).orElse(0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Check and repair a range of stripes of a file
+     * @param path The path of the file
+     * @param first The first stripe
+     * @param last The stripe after the last one
+     */
+    private void repairStripes(String path, int first, int last) {
+        final long[] keys = new long[(last - first) * totalSize];
+        final int nbStripes = copyKeys(path, first, last, keys);
+        if (nbStripes < last - first) {
+            statistics.stripesChecked(last - first - nbStripes);
+        }
+        if (nbStripes == 0) {
+            return;
+        }
+
+        final boolean[] available = new boolean[nbStripes * totalSize];
+        storageBackend.probeBlocksAvailable(Arrays.copyOf(keys, available.length), available);
+        statistics.stripesChecked(nbStripes);
+
+        final List<DamagedStripe> damagedStripes = new ArrayList<>();
+        for (int i = 0; i < nbStripes; i++) {
+            // Holes of sparse files have nothing to repair
+            if (keys[i * totalSize] == BlockKeyList.NO_KEY) {
+                continue;
+            }
+            final IntList erased = new IntArrayList();
+            for (int position = 0; position < totalSize; position++) {
+                if (!available[i * totalSize + position]) {
+                    erased.add(position);
+                }
+            }
+            if (!erased.isEmpty()) {
+                damagedStripes.add(new DamagedStripe(first + i, Arrays.copyOfRange(keys, i * totalSize, (i + 1) * totalSize), erased));
+            }
+        }
+        if (damagedStripes.isEmpty()) {
+            return;
+        }
+
+        retrieveBlocksForDecode(damagedStripes);
+        final List<DamagedStripe> repairedStripes = new ArrayList<>(damagedStripes.size());
+        for (DamagedStripe stripe : damagedStripes) {
+            // Blocks found missing while fetching are fetched again, one stripe at a time
+            while (!stripe.unrepairable && stripe.toReadForDecode == null) {
+                retrieveBlocksForDecode(Collections.singletonList(stripe));
+            }
+            if (!stripe.unrepairable) {
+                stripe.decode();
+                repairedStripes.add(stripe);
+            } else {
+                statistics.stripeUnrepairable();
+            }
+        }
+        storeRepairedStripes(path, repairedStripes);
+    }
+
+    /**
+     * Copy the keys of a range of stripes, under the read lock of the file
+     * @return The number of stripes copied, which is lower than requested if the file has been truncated meanwhile
+     */
+    private int copyKeys(String path, int first, int last, long[] keys) {
+        final Lock lock = fileEncoderDecoder.lockOf(path).readLock();
+        lock.lock();
+        try {
+            final Optional<BlockKeyList> blockKeys = storageBackend.getFileMetadata(path).flatMap(FileMetadata::getBlockKeys);
+            if (!blockKeys.isPresent()) {
+                return 0;
+            }
+            final int end = Math.min(last, blockKeys.get().getNbStripes());
+            for (int stripe = first; stripe < end; stripe++) {
+                for (int position = 0; position < totalSize; position++) {
+                    keys[(stripe - first) * totalSize + position] = blockKeys.get().getKey(stripe, position);
+                }
+            }
+            return Math.max(0, end - first);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fetch the blocks needed to decode many stripes with a single call to the storage backend. The stripes with
+     * blocks that could not be fetched get these blocks added to their erased positions, and must be fetched again.
+     * The stripes that have lost too many blocks are marked as unrepairable.
+     */
+    private void retrieveBlocksForDecode(List<DamagedStripe> stripes) {
+        final List<DamagedStripe> decodable = new ArrayList<>(stripes.size());
+        int nbKeys = 0;
+        for (DamagedStripe stripe : stripes) {
+            try {
+                stripe.toReadForDecode = erasureCode.locationsToReadForDecode(stripe.erased);
+                stripe.toReadForDecode.sort(null);
+                decodable.add(stripe);
+                nbKeys += stripe.toReadForDecode.size();
+            } catch (TooManyErasedLocations e) {
+                stripe.unrepairable = true;
+            }
+        }
+
+        final long[] keys = new long[nbKeys];
+        int k = 0;
+        for (DamagedStripe stripe : decodable) {
+            for (int position : stripe.toReadForDecode) {
+                keys[k++] = stripe.keys[position];
+            }
+        }
+        final byte[] values = new byte[nbKeys * blockSize];
+        final boolean[] found = new boolean[nbKeys];
+        storageBackend.retrieveBlocks(keys, values, found);
+
+        k = 0;
+        for (DamagedStripe stripe : decodable) {
+            final IntList missing = new IntArrayList();
+            for (int position : stripe.toReadForDecode) {
+                if (found[k]) {
+                    System.arraycopy(values, k * blockSize, stripe.blocks[position], 0, blockSize);
+                } else {
+                    missing.add(position);
+                }
+                k++;
+            }
+            if (!missing.isEmpty()) {
+                stripe.erased.addAll(missing);
+                stripe.erased.sort(null);
+                stripe.toReadForDecode = null;
+            }
+        }
+    }
+
+    /**
+     * Store the repaired blocks and update the keys of the file, under its write lock
+     */
+    private void storeRepairedStripes(String path, List<DamagedStripe> stripes) {
+        if (stripes.isEmpty()) {
+            return;
+        }
+        final Lock lock = fileEncoderDecoder.lockOf(path).writeLock();
+        lock.lock();
+        try {
+            final Optional<FileMetadata> metadata = storageBackend.getFileMetadata(path);
+            final Optional<BlockKeyList> blockKeys = metadata.flatMap(FileMetadata::getBlockKeys);
+            for (DamagedStripe stripe : stripes) {
+                if (!blockKeys.isPresent() || !stripe.isCurrent(blockKeys.get())) {
+                    statistics.stripeModified();
+                    continue;
+                }
+                for (int i = 0; i < stripe.erased.size(); i++) {
+                    final int position = stripe.erased.getInt(i);
+                    final long blockKey = storageBackend.storeBlock(stripe.erasedValues[i], 0, position);
+                    blockKeys.get().setKey(stripe.stripe, position, blockKey);
+                    fileEncoderDecoder.indexBlock(path, stripe.stripe, blockKey);
+                }
+                statistics.stripeRepaired(stripe.erased.size());
+            }
+            if (blockKeys.isPresent()) {
+                storageBackend.setFileMetadata(path, metadata.get());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A stripe with unavailable blocks, and its blocks as they are being fetched and decoded
+     */
+    private final class DamagedStripe {
+        private final int stripe;
+        /**
+         * The keys of the stripe when its availability was checked
+         */
+        private final long[] keys;
+        /**
+         * Sorted
+         */
+        private final IntList erased;
+        /**
+         * Null when the blocks to read have not been fetched yet
+         */
+        private IntList toReadForDecode;
+        private boolean unrepairable;
+        private final byte[][] blocks = new byte[totalSize][blockSize];
+        private byte[][] erasedValues;
+
+        private DamagedStripe(int stripe, long[] keys, IntList erased) {
+            this.stripe = stripe;
+            this.keys = keys;
+            this.erased = erased;
+        }
+
+        private void decode() {
+            erasedValues = new byte[erased.size()][blockSize];
+            erasureCode.decodeBulk(blocks, erasedValues, erased.toIntArray(), toReadForDecode.toIntArray(),
+                    fileEncoderDecoder.fillNotToRead(toReadForDecode));
+        }
+
+        /**
+         * @return Whether the stripe still has the keys it had when its availability was checked
+         */
+        private boolean isCurrent(BlockKeyList blockKeys) {
+            if (stripe >= blockKeys.getNbStripes()) {
+                return false;
+            }
+            for (int position = 0; position < totalSize; position++) {
+                if (blockKeys.getKey(stripe, position) != keys[position]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
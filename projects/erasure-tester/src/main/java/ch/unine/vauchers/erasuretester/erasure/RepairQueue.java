@@ -0,0 +1,191 @@
+package ch.unine.vauchers.erasuretester.erasure;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Damaged stripes waiting to be repaired, the most at risk first. Thread-safe.
+ * <br/>
+ * Stripes are ordered by remaining redundancy, that is how many more blocks they can lose before becoming unreadable,
+ * then by heat, the number of times they have been read since they were queued, then by age. A stripe that is queued
+ * again keeps its place in the age order, and moves ahead if its remaining redundancy has decreased.
+ */
+public class RepairQueue {
+    private static final Comparator<Entry> PRIORITY = Comparator.<Entry>comparingInt(entry -> entry.redundancy)
+            .thenComparing(Comparator.<Entry>comparingLong(entry -> entry.heat).reversed())
+            .thenComparingLong(entry -> entry.sequence);
+
+    private final Map<String, Int2ObjectMap<Entry>> entries = new HashMap<>();
+    private final TreeSet<Entry> byPriority = new TreeSet<>(PRIORITY);
+    /**
+     * Insertion order, the oldest entry first
+     */
+    private final Set<Entry> byAge = new LinkedHashSet<>();
+    private long nextSequence;
+    private volatile int depth;
+
+    private final LongAdder stripesQueued = new LongAdder();
+    private final LongAdder stripesDequeued = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    /**
+     * Queue a damaged stripe, or update its remaining redundancy if it is already queued
+     * @param path The path of the file
+     * @param stripe The index of the stripe
+     * @param redundancy How many more blocks the stripe can lose, in [0; paritySize[
+     * @return Whether the stripe was not queued yet
+     */
+    synchronized boolean offer(String path, int stripe, int redundancy) {
+        final Int2ObjectMap<Entry> stripes = entries.computeIfAbsent(path, p -> new Int2ObjectOpenHashMap<>());
+        final Entry entry = stripes.get(stripe);
+        if (entry == null) {
+            final Entry created = new Entry(path, stripe, redundancy, nextSequence++);
+            stripes.put(stripe, created);
+            byPriority.add(created);
+            byAge.add(created);
+            stripesQueued.increment();
+            depth++;
+            notifyAll();
+            return true;
+        }
+        if (redundancy < entry.redundancy) {
+            byPriority.remove(entry);
+            entry.redundancy = redundancy;
+            byPriority.add(entry);
+        }
+        return false;
+    }
+
+    /**
+     * Record a read of a stripe, which makes it hotter if it is queued
+     * @param path The path of the file
+     * @param stripe The index of the stripe
+     */
+    void touch(String path, int stripe) {
+        if (depth == 0) {
+            return;
+        }
+        synchronized (this) {
+            final Int2ObjectMap<Entry> stripes = entries.get(path);
+            final Entry entry = stripes == null ? null : stripes.get(stripe);
+            if (entry != null) {
+                byPriority.remove(entry);
+                entry.heat++;
+                byPriority.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Remove the stripe most at risk, waiting until one is queued
+     * @throws InterruptedException If interrupted while waiting
+     */
+    synchronized Entry take() throws InterruptedException {
+        while (byPriority.isEmpty()) {
+            wait();
+        }
+        final Entry entry = byPriority.pollFirst();
+        byAge.remove(entry);
+        final Int2ObjectMap<Entry> stripes = entries.get(entry.path);
+        stripes.remove(entry.stripe);
+        if (stripes.isEmpty()) {
+            entries.remove(entry.path);
+        }
+        depth--;
+        stripesDequeued.increment();
+        waitNanos.add(System.nanoTime() - entry.queuedAt);
+        return entry;
+    }
+
+    /**
+     * @return The number of stripes waiting to be repaired
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return The number of stripes waiting to be repaired that cannot lose any more block
+     */
+    public synchronized int getCriticalDepth() {
+        int critical = 0;
+        for (Entry entry : byPriority) {
+            if (entry.redundancy > 0) {
+                break;
+            }
+            critical++;
+        }
+        return critical;
+    }
+
+    /**
+     * @return How long the oldest stripe of the queue has been waiting, in milliseconds, 0 if the queue is empty
+     */
+    public synchronized long getOldestAgeMillis() {
+        if (byAge.isEmpty()) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - byAge.iterator().next().queuedAt);
+    }
+
+    /**
+     * @return How long the stripes removed from the queue had waited on average, in milliseconds
+     */
+    public double getMeanWaitMillis() {
+        final long dequeued = stripesDequeued.sum();
+        return dequeued > 0 ? waitNanos.sum() / (double) TimeUnit.MILLISECONDS.toNanos(1) / dequeued : 0;
+    }
+
+    public long getStripesQueued() {
+        return stripesQueued.sum();
+    }
+
+    public long getStripesDequeued() {
+        return stripesDequeued.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "RepairQueue{" +
+                "depth=" + getDepth() +
+                ", criticalDepth=" + getCriticalDepth() +
+                ", oldestAgeMillis=" + getOldestAgeMillis() +
+                ", meanWaitMillis=" + String.format("%.1f", getMeanWaitMillis()) +
+                ", stripesQueued=" + getStripesQueued() +
+                ", stripesDequeued=" + getStripesDequeued() +
+                '}';
+    }
+
+    /**
+     * A queued stripe. Its priority fields only change while it is out of {@link #byPriority}.
+     */
+    static final class Entry {
+        final String path;
+        final int stripe;
+        private int redundancy;
+        private long heat;
+        private final long sequence;
+        private final long queuedAt = System.nanoTime();
+
+        private Entry(String path, int stripe, int redundancy, long sequence) {
+            this.path = path;
+            this.stripe = stripe;
+            this.redundancy = redundancy;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public String toString() {
+            return path + "[" + stripe + "]";
+        }
+    }
+}
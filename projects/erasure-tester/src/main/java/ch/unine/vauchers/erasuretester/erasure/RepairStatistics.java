@@ -0,0 +1,159 @@
+package ch.unine.vauchers.erasuretester.erasure;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the repairs of a {@link FileEncoderDecoder}. Thread-safe.
+ * <br/>
+ * The progress counters cover the repair in progress, or the last one. The other counters are cumulative.
+ */
+public class RepairStatistics {
+    private final LongAdder stripesToCheck = new LongAdder();
+    private final LongAdder stripesChecked = new LongAdder();
+    private final LongAdder stripesRepaired = new LongAdder();
+    private final LongAdder blocksRepaired = new LongAdder();
+    private final LongAdder stripesUnrepairable = new LongAdder();
+    private final LongAdder stripesModified = new LongAdder();
+    private final LongAdder stripesReadRepaired = new LongAdder();
+    private final LongAdder readRepairsDiscarded = new LongAdder();
+    private volatile long startTime = System.nanoTime();
+    private volatile long endTime = startTime;
+
+    synchronized void repairStarted() {
+        stripesToCheck.reset();
+        stripesChecked.reset();
+        startTime = System.nanoTime();
+        endTime = 0;
+    }
+
+    synchronized void repairFinished() {
+        endTime = System.nanoTime();
+    }
+
+    void stripesScheduled(int count) {
+        stripesToCheck.add(count);
+    }
+
+    void stripesChecked(int count) {
+        stripesChecked.add(count);
+    }
+
+    void stripeRepaired(int blocks) {
+        stripesRepaired.increment();
+        blocksRepaired.add(blocks);
+    }
+
+    void stripeUnrepairable() {
+        stripesUnrepairable.increment();
+    }
+
+    void stripeModified() {
+        stripesModified.increment();
+    }
+
+    void stripeReadRepaired(int blocks) {
+        stripesReadRepaired.increment();
+        blocksRepaired.add(blocks);
+    }
+
+    void readRepairDiscarded() {
+        readRepairsDiscarded.increment();
+    }
+
+    /**
+     * @return The number of stripes that the current or last repair has to check
+     */
+    public long getStripesToCheck() {
+        return stripesToCheck.sum();
+    }
+
+    /**
+     * @return The number of stripes that the current or last repair has checked
+     */
+    public long getStripesChecked() {
+        return stripesChecked.sum();
+    }
+
+    /**
+     * @return The rate at which the current or last repair has checked stripes, per second
+     */
+    public double getStripesCheckedPerSecond() {
+        final long end = endTime;
+        final long elapsed = (end == 0 ? System.nanoTime() : end) - startTime;
+        return elapsed > 0 ? getStripesChecked() / (elapsed / (double) TimeUnit.SECONDS.toNanos(1)) : 0;
+    }
+
+    /**
+     * @return Whether a repair is in progress
+     */
+    public boolean isRepairing() {
+        return endTime == 0;
+    }
+
+    public long getStripesRepaired() {
+        return stripesRepaired.sum();
+    }
+
+    public long getBlocksRepaired() {
+        return blocksRepaired.sum();
+    }
+
+    /**
+     * @return The number of stripes that had lost too many blocks to be repaired
+     */
+    public long getStripesUnrepairable() {
+        return stripesUnrepairable.sum();
+    }
+
+    /**
+     * @return The number of repaired stripes that had been overwritten or truncated while being repaired, and were
+     * left as they were
+     */
+    public long getStripesModified() {
+        return stripesModified.sum();
+    }
+
+    /**
+     * @return The number of stripes whose decoded blocks have been stored back by degraded reads
+     */
+    public long getStripesReadRepaired() {
+        return stripesReadRepaired.sum();
+    }
+
+    /**
+     * @return The number of degraded reads whose decoded blocks have not been stored back, because too many of them
+     * were waiting
+     */
+    public long getReadRepairsDiscarded() {
+        return readRepairsDiscarded.sum();
+    }
+
+    public synchronized void reset() {
+        stripesToCheck.reset();
+        stripesChecked.reset();
+        stripesRepaired.reset();
+        blocksRepaired.reset();
+        stripesUnrepairable.reset();
+        stripesModified.reset();
+        stripesReadRepaired.reset();
+        readRepairsDiscarded.reset();
+        startTime = System.nanoTime();
+        endTime = startTime;
+    }
+
+    @Override
+    public String toString() {
+        return "RepairStatistics{" +
+                "stripesChecked=" + getStripesChecked() +
+                ", stripesToCheck=" + getStripesToCheck() +
+                ", stripesCheckedPerSecond=" + String.format("%.1f", getStripesCheckedPerSecond()) +
+                ", stripesRepaired=" + getStripesRepaired() +
+                ", blocksRepaired=" + getBlocksRepaired() +
+                ", stripesUnrepairable=" + getStripesUnrepairable() +
+                ", stripesModified=" + getStripesModified() +
+                ", stripesReadRepaired=" + getStripesReadRepaired() +
+                ", readRepairsDiscarded=" + getReadRepairsDiscarded() +
+                '}';
+    }
+}
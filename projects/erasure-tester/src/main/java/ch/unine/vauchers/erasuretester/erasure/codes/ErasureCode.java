@@ -23,6 +23,10 @@ import it.unimi.dsi.fastutil.ints.IntList;
 
 import java.util.List;
 
+/**
+ * Implementations must be reentrant: a single instance is shared by all the threads reading and writing files, so
+ * per-call scratch buffers must not be kept in fields.
+ */
 public abstract class ErasureCode {
     /**
      * Encodes the given message.
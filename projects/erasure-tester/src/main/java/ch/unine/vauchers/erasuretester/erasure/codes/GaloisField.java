@@ -24,14 +24,19 @@ import java.util.Map;
 /**
  * Implementation of Galois field arithmetics with 2^p elements.
  * The input must be unsigned integers.
+ * <br/>
+ * The multiplication and division tables are flat byte arrays indexed by <code>(x &lt;&lt; p) | y</code>: the 2^p
+ * products of a given coefficient x form a contiguous row, which keeps the multiply-by-constant loops of the bulk
+ * operations within a few cache lines. As a consequence, the field size is limited to 256.
  */
 public class GaloisField {
 
     private final int[] logTable;
     private final int[] powTable;
-    private final int[][] mulTable;
-    private final int[][] divTable;
+    private final byte[] mulTable;
+    private final byte[] divTable;
     private final int fieldSize;
+    private final int fieldBits;
     private final int primitivePeriod;
     private final int primitivePolynomial;
 
@@ -71,13 +76,15 @@ public class GaloisField {
     }
 
     private GaloisField(int fieldSize, int primitivePolynomial) {
+        assert (fieldSize <= 256 && Integer.bitCount(fieldSize) == 1);
         this.fieldSize = fieldSize;
+        this.fieldBits = Integer.numberOfTrailingZeros(fieldSize);
         this.primitivePeriod = fieldSize - 1;
         this.primitivePolynomial = primitivePolynomial;
         logTable = new int[fieldSize];
         powTable = new int[fieldSize];
-        mulTable = new int[fieldSize][fieldSize];
-        divTable = new int[fieldSize][fieldSize];
+        mulTable = new byte[fieldSize * fieldSize];
+        divTable = new byte[fieldSize * fieldSize];
         int value = 1;
         for (int pow = 0; pow < fieldSize - 1; pow++) {
             powTable[pow] = value;
@@ -91,26 +98,26 @@ public class GaloisField {
         for (int i = 0; i < fieldSize; i++) {
             for (int j = 0; j < fieldSize; j++) {
                 if (i == 0 || j == 0) {
-                    mulTable[i][j] = 0;
+                    mulTable[(i << fieldBits) | j] = 0;
                     continue;
                 }
                 int z = logTable[i] + logTable[j];
                 z = z >= primitivePeriod ? z - primitivePeriod : z;
                 z = powTable[z];
-                mulTable[i][j] = z;
+                mulTable[(i << fieldBits) | j] = (byte) z;
             }
         }
         // building division table
         for (int i = 0; i < fieldSize; i++) {
             for (int j = 1; j < fieldSize; j++) {
                 if (i == 0) {
-                    divTable[i][j] = 0;
+                    divTable[(i << fieldBits) | j] = 0;
                     continue;
                 }
                 int z = logTable[i] - logTable[j];
                 z = z < 0 ? z + primitivePeriod : z;
                 z = powTable[z];
-                divTable[i][j] = z;
+                divTable[(i << fieldBits) | j] = (byte) z;
             }
         }
     }
@@ -154,7 +161,7 @@ public class GaloisField {
      */
     public int multiply(int x, int y) {
         assert (x >= 0 && x < getFieldSize() && y >= 0 && y < getFieldSize());
-        return mulTable[x][y];
+        return mulTable[(x << fieldBits) | y] & 0xFF;
     }
 
     /**
@@ -166,7 +173,7 @@ public class GaloisField {
      */
     public int divide(int x, int y) {
         assert (x >= 0 && x < getFieldSize() && y > 0 && y < getFieldSize());
-        return divTable[x][y];
+        return divTable[(x << fieldBits) | y] & 0xFF;
     }
 
     /**
@@ -217,12 +224,12 @@ public class GaloisField {
         //assert(x.length <= len && y.length <= len);
         for (int i = 0; i < len - 1; i++) {
             for (int j = len - 1; j > i; j--) {
-                y[j] = y[j] ^ mulTable[x[i]][y[j - 1]];
+                y[j] = y[j] ^ multiply(x[i], y[j - 1]);
             }
         }
         for (int i = len - 1; i >= 0; i--) {
             for (int j = i + 1; j < len; j++) {
-                y[j] = divTable[y[j]][x[j] ^ x[j - i - 1]];
+                y[j] = divide(y[j], x[j] ^ x[j - i - 1]);
             }
             for (int j = i; j < len - 1; j++) {
                 y[j] = y[j] ^ y[j + 1];
@@ -238,15 +245,16 @@ public class GaloisField {
         assert (x.length <= len && y.length <= len);
         for (int i = 0; i < len - 1; i++) {
             for (int j = len - 1; j > i; j--) {
-                for (int k = 0; k < dataLen; k++) {
-                    y[j][k] = (byte) (y[j][k] ^ mulTable[x[i]][y[j - 1][k] & 0x000000FF]);
-                }
+                multiplyAndAdd(y[j - 1], x[i], y[j], dataLen);
             }
         }
         for (int i = len - 1; i >= 0; i--) {
             for (int j = i + 1; j < len; j++) {
+                // Dividing by a constant is multiplying by its inverse
+                final int row = divide(1, x[j] ^ x[j - i - 1]) << fieldBits;
+                final byte[] yj = y[j];
                 for (int k = 0; k < dataLen; k++) {
-                    y[j][k] = (byte) (divTable[y[j][k] & 0x000000FF][x[j] ^ x[j - i - 1]]);
+                    yj[k] = mulTable[row | (yj[k] & 0xFF)];
                 }
             }
             for (int j = i; j < len - 1; j++) {
@@ -290,11 +298,10 @@ public class GaloisField {
      */
     public void remainder(int[] dividend, int[] divisor) {
         for (int i = dividend.length - divisor.length; i >= 0; i--) {
-            int ratio =
-                    divTable[dividend[i + divisor.length - 1]][divisor[divisor.length - 1]];
+            int ratio = divide(dividend[i + divisor.length - 1], divisor[divisor.length - 1]);
             for (int j = 0; j < divisor.length; j++) {
                 int k = j + i;
-                dividend[k] = dividend[k] ^ mulTable[ratio][divisor[j]];
+                dividend[k] = dividend[k] ^ multiply(ratio, divisor[j]);
             }
         }
     }
@@ -304,13 +311,17 @@ public class GaloisField {
      * Warning: This function will modify the "dividend" inputs.
      */
     public void remainder(byte[][] dividend, int[] divisor) {
+        final int dataLen = dividend[0].length;
+        final byte[] ratio = new byte[dataLen];
+        final int inverseRow = divide(1, divisor[divisor.length - 1]) << fieldBits;
         for (int i = dividend.length - divisor.length; i >= 0; i--) {
+            // The ratios have to be computed before the leading term gets cancelled by the last iteration below
+            final byte[] lead = dividend[i + divisor.length - 1];
+            for (int k = 0; k < dataLen; k++) {
+                ratio[k] = mulTable[inverseRow | (lead[k] & 0xFF)];
+            }
             for (int j = 0; j < divisor.length; j++) {
-                for (int k = 0; k < dividend[i].length; k++) {
-                    int ratio =
-                            divTable[dividend[i + divisor.length - 1][k] & 0x00FF][divisor[divisor.length - 1]];
-                    dividend[j + i][k] = (byte) ((dividend[j + i][k] & 0x00FF) ^ mulTable[ratio][divisor[j]]);
-                }
+                multiplyAndAdd(ratio, divisor[j], dividend[j + i], dataLen);
             }
         }
     }
@@ -350,8 +361,8 @@ public class GaloisField {
         int result = 0;
         int y = 1;
         for (int i = 0; i < p.length; i++) {
-            result = result ^ mulTable[p[i]][y];
-            y = mulTable[x][y];
+            result = result ^ multiply(p[i], y);
+            y = multiply(x, y);
         }
         return result;
     }
@@ -367,13 +378,81 @@ public class GaloisField {
     public void substitute(byte[][] p, byte[] q, int x) {
         int y = 1;
         for (int i = 0; i < p.length; i++) {
-            byte[] pi = p[i];
-            for (int j = 0; j < pi.length; j++) {
-                int pij = pi[j] & 0x000000FF;
-                q[j] = (byte) (q[j] ^ mulTable[pij][y]);
+            multiplyAndAdd(p[i], y, q, p[i].length);
+            y = multiply(x, y);
+        }
+    }
+
+    /**
+     * Multiply a vector by a constant and add the result to another vector: <code>dest += x * src</code>.
+     * This is the building block of all the "bulk" operations.
+     *
+     * @param src  input vector
+     * @param x    input field, the constant
+     * @param dest vector to which the product is added
+     * @param len  consider src and dest only from 0...len-1
+     */
+    public void multiplyAndAdd(byte[] src, int x, byte[] dest, int len) {
+        assert (x >= 0 && x < getFieldSize());
+        if (x == 0) {
+            return;
+        }
+        final int row = x << fieldBits;
+        for (int k = 0; k < len; k++) {
+            dest[k] ^= mulTable[row | (src[k] & 0xFF)];
+        }
+    }
+
+    /**
+     * Compute the inverse of a square matrix with Gauss-Jordan elimination.
+     *
+     * @param matrix the matrix to invert, left untouched
+     * @return the inverse of the matrix
+     * @throws IllegalArgumentException if the matrix is singular
+     */
+    public int[][] invert(int[][] matrix) {
+        final int size = matrix.length;
+        final int[][] work = new int[size][];
+        final int[][] inverse = new int[size][size];
+        for (int i = 0; i < size; i++) {
+            assert (matrix[i].length == size);
+            work[i] = matrix[i].clone();
+            inverse[i][i] = 1;
+        }
+
+        for (int i = 0; i < size; i++) {
+            // scan the column for a nonzero pivot and swap it to the diagonal
+            int pivotRow = i;
+            while (pivotRow < size && work[pivotRow][i] == 0) {
+                pivotRow++;
+            }
+            if (pivotRow == size) {
+                throw new IllegalArgumentException("Singular matrix");
+            }
+            int[] tmp = work[i];
+            work[i] = work[pivotRow];
+            work[pivotRow] = tmp;
+            tmp = inverse[i];
+            inverse[i] = inverse[pivotRow];
+            inverse[pivotRow] = tmp;
+
+            final int pivotInverse = divide(1, work[i][i]);
+            for (int k = 0; k < size; k++) {
+                work[i][k] = multiply(work[i][k], pivotInverse);
+                inverse[i][k] = multiply(inverse[i][k], pivotInverse);
+            }
+            for (int j = 0; j < size; j++) {
+                final int lead = work[j][i];
+                if (j == i || lead == 0) {
+                    continue;
+                }
+                for (int k = 0; k < size; k++) {
+                    work[j][k] = add(work[j][k], multiply(lead, work[i][k]));
+                    inverse[j][k] = add(inverse[j][k], multiply(lead, inverse[i][k]));
+                }
             }
-            y = mulTable[x][y];
         }
+        return inverse;
     }
 
     /**
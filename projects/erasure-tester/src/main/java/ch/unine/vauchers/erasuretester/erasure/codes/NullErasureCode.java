@@ -22,6 +22,11 @@ public class NullErasureCode extends ErasureCode {
 
     }
 
+    @Override
+    public void encodeBulk(byte[][] inputs, byte[][] outputs) {
+
+    }
+
     @Override
     public void decode(int[] data, int[] erasedLocations, int[] erasedValues) {
 
@@ -37,7 +42,8 @@ public class NullErasureCode extends ErasureCode {
         if (erasedLocations.size() > 0) {
             throw new TooManyErasedLocations("No parity with NullErasureCode");
         } else {
-            return locationsToRead;
+            // Return a copy, as callers are free to modify the list
+            return new IntArrayList(locationsToRead);
         }
     }
 
@@ -22,6 +22,10 @@ import java.util.Arrays;
 import java.util.Set;
 import java.util.logging.Logger;
 
+/**
+ * Systematic Reed-Solomon code over GF(2^8): the parity symbols are the remainder of the division of the message by the
+ * generating polynomial, and erasures are decoded by solving a Vandermonde system.
+ */
 public class ReedSolomonCode extends ErasureCode {
     public static final Logger LOG = Logger.getLogger(ReedSolomonCode.class.getName());
 
@@ -31,17 +35,24 @@ public class ReedSolomonCode extends ErasureCode {
     private int PRIMITIVE_ROOT = 2;
     private int[] primitivePower;
     private GaloisField GF = GaloisField.getInstance();
-    private int[] errSignature;
     private int[] paritySymbolLocations;
-    private int[] dataBuff;
+    /**
+     * Scratch of encode, per thread as the code is shared by concurrent operations
+     */
+    private final ThreadLocal<int[]> dataBuffers;
+    /**
+     * Scratch of decode, which the decodeBulk variant with locations to read calls once per byte. Large enough for any
+     * number of erased locations.
+     */
+    private final ThreadLocal<int[]> errSignatures;
 
     public ReedSolomonCode(int stripeSize, int paritySize) {
         assert (stripeSize + paritySize < GF.getFieldSize());
         this.stripeSize = stripeSize;
         this.paritySize = paritySize;
-        this.errSignature = new int[paritySize];
         this.paritySymbolLocations = new int[paritySize];
-        this.dataBuff = new int[paritySize + stripeSize];
+        this.dataBuffers = ThreadLocal.withInitial(() -> new int[paritySize + stripeSize]);
+        this.errSignatures = ThreadLocal.withInitial(() -> new int[paritySize + stripeSize]);
         for (int i = 0; i < paritySize; i++) {
             paritySymbolLocations[i] = i;
         }
@@ -70,9 +81,8 @@ public class ReedSolomonCode extends ErasureCode {
     @Override
     public void encode(int[] message, int[] parity) {
         assert (message.length == stripeSize && parity.length == paritySize);
-        for (int i = 0; i < paritySize; i++) {
-            dataBuff[i] = 0;
-        }
+        final int[] dataBuff = dataBuffers.get();
+        Arrays.fill(dataBuff, 0, paritySize, 0);
         for (int i = 0; i < stripeSize; i++) {
             dataBuff[i + paritySize] = message[i];
         }
@@ -119,6 +129,7 @@ public class ReedSolomonCode extends ErasureCode {
         for (int i = 0; i < erasedLocations.length; i++) {
             data[erasedLocations[i]] = 0;
         }
+        final int[] errSignature = errSignatures.get();
         for (int i = 0; i < erasedLocations.length; i++) {
             errSignature[i] = primitivePower[erasedLocations[i]];
             erasedValues[i] = GF.substitute(data, primitivePower[i]);
@@ -130,11 +141,18 @@ public class ReedSolomonCode extends ErasureCode {
     @Override
     public void decode(int[] data, int[] erasedLocations, int[] erasedValues,
                        int[] locationsToRead, int[] locationsNotToRead) {
+        decodeAllNotToRead(data, erasedLocations, erasedValues, locationsNotToRead, new int[locationsNotToRead.length]);
+    }
+
+    /**
+     * @param recovValue Scratch array, of the length of locationsNotToRead
+     */
+    private void decodeAllNotToRead(int[] data, int[] erasedLocations, int[] erasedValues, int[] locationsNotToRead,
+                                    int[] recovValue) {
     /*
      * Pretend that all locations in locationsNotToRead are
      * erased and try to repair them.
      */
-        int[] recovValue = new int[locationsNotToRead.length];
         decode(data, locationsNotToRead, recovValue);
 
     /*
@@ -162,6 +180,7 @@ public class ReedSolomonCode extends ErasureCode {
             Arrays.fill(writeBufs[i], (byte) 0);
         }
 
+        final int[] errSignature = new int[erasedLocation.length];
         for (int i = 0; i < erasedLocation.length; i++) {
             errSignature[i] = primitivePower[erasedLocation[i]];
             GF.substitute(readBufs, writeBufs[i], primitivePower[i]);
@@ -179,6 +198,7 @@ public class ReedSolomonCode extends ErasureCode {
                            int[] erasedLocations, int[] locationsToRead, int[] locationsNotToRead) {
         int[] tmpInput = new int[readBufs.length];
         int[] tmpOutput = new int[erasedLocations.length];
+        int[] recovValue = new int[locationsNotToRead.length];
 
         int numBytes = readBufs[0].length;
         for (int idx = 0; idx < numBytes; idx++) {
@@ -188,8 +208,7 @@ public class ReedSolomonCode extends ErasureCode {
             for (int i = 0; i < tmpInput.length; i++) {
                 tmpInput[i] = readBufs[i][idx] & 0x000000FF;
             }
-            decode(tmpInput, erasedLocations, tmpOutput, locationsToRead,
-                    locationsNotToRead);
+            decodeAllNotToRead(tmpInput, erasedLocations, tmpOutput, locationsNotToRead, recovValue);
             for (int i = 0; i < tmpOutput.length; i++) {
                 writeBufs[i][idx] = (byte) tmpOutput[i];
             }
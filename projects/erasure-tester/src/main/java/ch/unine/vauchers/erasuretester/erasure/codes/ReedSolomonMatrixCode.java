@@ -0,0 +1,223 @@
+package ch.unine.vauchers.erasuretester.erasure.codes;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reed-Solomon code encoding with a precomputed systematic parity matrix instead of a polynomial division.
+ * <br/>
+ * The remainder computed by {@link ReedSolomonCode} is linear in the message, so each parity symbol is a fixed linear
+ * combination of the message symbols. The coefficients are obtained once by encoding the unit vectors with the
+ * polynomial method, which makes this code produce exactly the same parity as {@link ReedSolomonCode}: both can be
+ * used interchangeably on the same stored data. Each parity symbol then becomes an independent dot product, without
+ * the serial dependency chain of the long division.
+ * <br/>
+ * Decoding from a given set of locations to read also boils down to a matrix-vector product. The decode matrices are
+ * kept in an LRU cache keyed by the (erased, toRead) locations pattern, as the same pattern repeats for every stripe
+ * while a node is down. Patterns that cannot be expressed as bitmasks (more than 32 locations in total) fall back to
+ * the inherited Vandermonde decoder.
+ */
+public class ReedSolomonMatrixCode extends ReedSolomonCode {
+    public static final int DECODE_CACHE_SIZE = 256;
+    private static final int MAX_MASK_SIZE = Long.SIZE / 2;
+
+    private final GaloisField GF = GaloisField.getInstance();
+    /**
+     * parityMatrix[i][j] is the coefficient of message symbol j in parity symbol i
+     */
+    private final int[][] parityMatrix;
+    private final LinkedHashMap<Long, DecodeMatrix> decodeCache;
+
+    public ReedSolomonMatrixCode(int stripeSize, int paritySize) {
+        super(stripeSize, paritySize);
+
+        parityMatrix = new int[paritySize][stripeSize];
+        final int[] unit = new int[stripeSize];
+        final int[] column = new int[paritySize];
+        for (int j = 0; j < stripeSize; j++) {
+            unit[j] = 1;
+            super.encode(unit, column);
+            unit[j] = 0;
+            for (int i = 0; i < paritySize; i++) {
+                parityMatrix[i][j] = column[i];
+            }
+        }
+
+        decodeCache = new LinkedHashMap<Long, DecodeMatrix>(DECODE_CACHE_SIZE + 1, .75f, true) {
+            @Override
+            public boolean removeEldestEntry(Map.Entry<Long, DecodeMatrix> eldest) {
+                return size() > DECODE_CACHE_SIZE;
+            }
+        };
+    }
+
+    @Override
+    public void encode(int[] message, int[] parity) {
+        assert (message.length == stripeSize() && parity.length == paritySize());
+        for (int i = 0; i < parityMatrix.length; i++) {
+            final int[] coefficients = parityMatrix[i];
+            int value = 0;
+            for (int j = 0; j < coefficients.length; j++) {
+                value ^= GF.multiply(coefficients[j], message[j]);
+            }
+            parity[i] = value;
+        }
+    }
+
+    /**
+     * Unlike {@link ReedSolomonCode#encodeBulk(byte[][], byte[][])}, this implementation leaves the inputs untouched.
+     */
+    @Override
+    public void encodeBulk(byte[][] inputs, byte[][] outputs) {
+        assert (stripeSize() == inputs.length);
+        assert (paritySize() == outputs.length);
+
+        for (int i = 0; i < outputs.length; i++) {
+            final byte[] output = outputs[i];
+            final int[] coefficients = parityMatrix[i];
+            Arrays.fill(output, (byte) 0);
+            for (int j = 0; j < inputs.length; j++) {
+                GF.multiplyAndAdd(inputs[j], coefficients[j], output, output.length);
+            }
+        }
+    }
+
+    @Override
+    public void decode(int[] data, int[] erasedLocations, int[] erasedValues,
+                       int[] locationsToRead, int[] locationsNotToRead) {
+        final DecodeMatrix decodeMatrix = getDecodeMatrix(erasedLocations, locationsToRead);
+        if (decodeMatrix == null) {
+            super.decode(data, erasedLocations, erasedValues, locationsToRead, locationsNotToRead);
+            return;
+        }
+
+        final int[] toRead = decodeMatrix.locationsToRead;
+        for (int i = 0; i < erasedLocations.length; i++) {
+            final int[] row = decodeMatrix.rowFor(erasedLocations[i]);
+            int value = 0;
+            for (int m = 0; m < toRead.length; m++) {
+                value ^= GF.multiply(row[m], data[toRead[m]]);
+            }
+            erasedValues[i] = value;
+        }
+    }
+
+    @Override
+    public void decodeBulk(byte[][] readBufs, byte[][] writeBufs,
+                           int[] erasedLocations, int[] locationsToRead, int[] locationsNotToRead) {
+        final DecodeMatrix decodeMatrix = getDecodeMatrix(erasedLocations, locationsToRead);
+        if (decodeMatrix == null) {
+            super.decodeBulk(readBufs, writeBufs, erasedLocations, locationsToRead, locationsNotToRead);
+            return;
+        }
+
+        final int[] toRead = decodeMatrix.locationsToRead;
+        for (int i = 0; i < erasedLocations.length; i++) {
+            final int[] row = decodeMatrix.rowFor(erasedLocations[i]);
+            final byte[] output = writeBufs[i];
+            Arrays.fill(output, (byte) 0);
+            for (int m = 0; m < toRead.length; m++) {
+                GF.multiplyAndAdd(readBufs[toRead[m]], row[m], output, output.length);
+            }
+        }
+    }
+
+    /**
+     * Get the decode matrix for a given pattern, from the cache if possible.
+     * @return The decode matrix, or null if the pattern is not supported
+     */
+    private DecodeMatrix getDecodeMatrix(int[] erasedLocations, int[] locationsToRead) {
+        if (locationsToRead.length != stripeSize() || stripeSize() + paritySize() > MAX_MASK_SIZE) {
+            return null;
+        }
+
+        final long erasedMask = toMask(erasedLocations);
+        final long toReadMask = toMask(locationsToRead);
+        final Long cacheKey = (erasedMask << MAX_MASK_SIZE) | toReadMask;
+        DecodeMatrix decodeMatrix;
+        synchronized (decodeCache) {
+            decodeMatrix = decodeCache.get(cacheKey);
+        }
+        if (decodeMatrix == null) {
+            // Computed outside of the lock, two threads may occasionally compute the same immutable matrix
+            decodeMatrix = new DecodeMatrix(erasedMask, toReadMask);
+            synchronized (decodeCache) {
+                decodeCache.put(cacheKey, decodeMatrix);
+            }
+        }
+        return decodeMatrix;
+    }
+
+    private static long toMask(int[] locations) {
+        long mask = 0;
+        for (int location : locations) {
+            mask |= 1L << location;
+        }
+        return mask;
+    }
+
+    /**
+     * Row of the systematic generator matrix corresponding to a location: the parity matrix for the parity locations,
+     * the identity for the message locations.
+     */
+    private int[] generatorRow(int location) {
+        if (location < paritySize()) {
+            return parityMatrix[location];
+        } else {
+            final int[] row = new int[stripeSize()];
+            row[location - paritySize()] = 1;
+            return row;
+        }
+    }
+
+    /**
+     * Matrix giving the erased symbols as linear combinations of the symbols to read. The message is recovered by
+     * inverting the generator rows of the locations to read, then the erased locations are re-encoded from it.
+     */
+    private final class DecodeMatrix {
+        /**
+         * The locations to read, in ascending order
+         */
+        private final int[] locationsToRead;
+        private final long erasedMask;
+        /**
+         * One row per erased location, in ascending order of location
+         */
+        private final int[][] rows;
+
+        private DecodeMatrix(long erasedMask, long toReadMask) {
+            this.erasedMask = erasedMask;
+            locationsToRead = new int[Long.bitCount(toReadMask)];
+            for (int m = 0, location = 0; m < locationsToRead.length; location++) {
+                if ((toReadMask & (1L << location)) != 0) {
+                    locationsToRead[m++] = location;
+                }
+            }
+
+            final int[][] readRows = new int[locationsToRead.length][];
+            for (int m = 0; m < locationsToRead.length; m++) {
+                readRows[m] = generatorRow(locationsToRead[m]);
+            }
+            final int[][] inverse = GF.invert(readRows);
+
+            rows = new int[Long.bitCount(erasedMask)][];
+            for (int r = 0, location = 0; r < rows.length; location++) {
+                if ((erasedMask & (1L << location)) != 0) {
+                    final int[] erasedRow = generatorRow(location);
+                    final int[] row = new int[locationsToRead.length];
+                    for (int m = 0; m < row.length; m++) {
+                        for (int j = 0; j < erasedRow.length; j++) {
+                            row[m] ^= GF.multiply(erasedRow[j], inverse[j][m]);
+                        }
+                    }
+                    rows[r++] = row;
+                }
+            }
+        }
+
+        private int[] rowFor(int erasedLocation) {
+            return rows[Long.bitCount(erasedMask & ((1L << erasedLocation) - 1))];
+        }
+    }
+}
@@ -22,9 +22,14 @@ import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
 
+/**
+ * Simple regenerating code: a Reed-Solomon code whose symbols are also split into groups, each protected by a simple
+ * XOR parity, so that a single erasure is repaired by reading its group only.
+ */
 public class SimpleRegeneratingCode extends ErasureCode {
     public static final Logger LOG = Logger.getLogger(SimpleRegeneratingCode.class.getName());
     private int stripeSize;
@@ -36,10 +41,17 @@ public class SimpleRegeneratingCode extends ErasureCode {
     private int PRIMITIVE_ROOT = 2;
     private int[] primitivePower;
     private GaloisField GF = GaloisField.getInstance();
-    private int[] errSignature;
-    private int[] dataBuff;
     private int[][] groupsTable;
     private final IntList locationsToReadZeroFailure;
+    /**
+     * Scratch of the Reed-Solomon part of encode, which the inherited encodeBulk calls once per byte
+     */
+    private final ThreadLocal<int[]> dataBuffers;
+    /**
+     * Scratch of decodeReedSolomon, reached once per byte from the inherited decodeBulk. Large enough for any number of
+     * erased locations.
+     */
+    private final ThreadLocal<int[]> errSignatures;
 
     public SimpleRegeneratingCode(int stripeSize, int paritySize, int paritySizeSRC) {
         this.paritySizeSRC = paritySizeSRC;
@@ -73,8 +85,9 @@ public class SimpleRegeneratingCode extends ErasureCode {
                     (double) (stripeSize + paritySizeRS) / (double) (paritySizeSRC + 1));
         }
 
-        this.errSignature = new int[paritySizeRS];
-        this.dataBuff = new int[paritySizeRS + stripeSize];
+        final int dataBuffSize = paritySizeRS + stripeSize;
+        dataBuffers = ThreadLocal.withInitial(() -> new int[dataBuffSize]);
+        errSignatures = ThreadLocal.withInitial(() -> new int[dataBuffSize]);
 
         this.primitivePower = new int[stripeSize + paritySizeRS];
         // compute powers of the primitive root
@@ -115,9 +128,8 @@ public class SimpleRegeneratingCode extends ErasureCode {
     public void encode(int[] message, int[] parity) {
         assert (message.length == stripeSize && parity.length == paritySize);
         // initialize data buffer
-        for (int i = 0; i < paritySizeRS; i++) {
-            dataBuff[i] = 0;
-        }
+        final int[] dataBuff = dataBuffers.get();
+        Arrays.fill(dataBuff, 0, paritySizeRS, 0);
 
         // put message in the data buffer
         for (int i = 0; i < stripeSize; i++) {
@@ -160,6 +172,7 @@ public class SimpleRegeneratingCode extends ErasureCode {
             data[erasedLocations[i]] = 0;
         }
 
+        final int[] errSignature = errSignatures.get();
         for (int i = 0; i < erasedLocations.length; i++) {
             errSignature[i] = primitivePower[erasedLocations[i]];
             erasedValues[i] = GF.substitute(data, primitivePower[i]);
@@ -308,7 +321,8 @@ public class SimpleRegeneratingCode extends ErasureCode {
         IntList locationsToRead;
 
         if (erasedLocations.size() == 0) {
-            return locationsToReadZeroFailure;
+            // Return a copy, as callers are free to modify the list
+            return new IntArrayList(locationsToReadZeroFailure);
         }
         else if (erasedLocations.size() == 1) {
             // If only one location is erased, return its local (src) group
@@ -25,13 +25,11 @@ public class XORCode extends ErasureCode {
 
     private int stripeSize;
     private int paritySize;
-    private int[] dataBuff;
 
     public XORCode(int stripeSize, int paritySize) {
         assert (paritySize == 1);
         this.stripeSize = stripeSize;
         this.paritySize = paritySize;
-        this.dataBuff = new int[paritySize + stripeSize];
 
         LOG.info("Initialized " + XORCode.class +
                 " stripeSize:" + stripeSize +
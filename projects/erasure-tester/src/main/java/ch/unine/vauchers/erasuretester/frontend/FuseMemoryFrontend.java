@@ -1,6 +1,7 @@
 package ch.unine.vauchers.erasuretester.frontend;
 
 import ch.unine.vauchers.erasuretester.erasure.FileEncoderDecoder;
+import ch.unine.vauchers.erasuretester.erasure.ReadAhead;
 import ch.unine.vauchers.erasuretester.erasure.codes.TooManyErasedLocations;
 import net.fusejna.DirectoryFiller;
 import net.fusejna.ErrorCodes;
@@ -105,6 +106,8 @@ public class FuseMemoryFrontend extends FuseFilesystemAdapterAssumeImplemented {
     }
 
     private final class MemoryFile extends MemoryPath {
+        private final ReadAhead readAhead = encdec.newReadAhead();
+
         private MemoryFile(final String name) {
             super(name);
         }
@@ -120,8 +123,9 @@ public class FuseMemoryFrontend extends FuseFilesystemAdapterAssumeImplemented {
 
         private int read(final ByteBuffer buffer, final long size, final long offset) {
             final String filepath = getFilepath();
+            readAhead.onRead(filepath, offset, size);
             try {
-                encdec.readFile(filepath, (int) size, (int) offset, buffer);
+                encdec.readFile(filepath, (int) size, offset, buffer);
                 return (int) Math.min(encdec.sizeOfFile(filepath) - offset, size);
             } catch (TooManyErasedLocations e) {
                 log.warning("Unable to read file at " + filepath);
@@ -130,11 +134,11 @@ public class FuseMemoryFrontend extends FuseFilesystemAdapterAssumeImplemented {
         }
 
         private synchronized void truncate(final long size) {
-            encdec.truncate(getFilepath(), (int) size);
+            encdec.truncate(getFilepath(), size);
         }
 
         private int write(final ByteBuffer buffer, final long bufSize, final long writeOffset) {
-            encdec.writeFile(this.getFilepath(), (int) bufSize, (int) writeOffset, buffer);
+            encdec.writeFile(this.getFilepath(), (int) bufSize, writeOffset, buffer);
             return (int) bufSize;
         }
     }
@@ -205,6 +209,23 @@ public class FuseMemoryFrontend extends FuseFilesystemAdapterAssumeImplemented {
         return -ErrorCodes.ENOENT();
     }
 
+    @Override
+    public void destroy() {
+        encdec.close();
+    }
+
+    @Override
+    public int flush(final String path, final FileInfoWrapper info) {
+        encdec.flush();
+        return 0;
+    }
+
+    @Override
+    public int fsync(final String path, final int datasync, final FileInfoWrapper info) {
+        encdec.flush();
+        return 0;
+    }
+
     @Override
     public int getattr(final String path, final StatWrapper stat) {
         final MemoryPath p = getPath(path);
@@ -256,6 +277,10 @@ public class FuseMemoryFrontend extends FuseFilesystemAdapterAssumeImplemented {
 
     @Override
     public int open(final String path, final FileInfoWrapper info) {
+        final MemoryPath p = getPath(path);
+        if (p instanceof MemoryFile) {
+            ((MemoryFile) p).readAhead.reset();
+        }
         return 0;
     }
 
@@ -284,6 +309,12 @@ public class FuseMemoryFrontend extends FuseFilesystemAdapterAssumeImplemented {
         return 0;
     }
 
+    @Override
+    public int release(final String path, final FileInfoWrapper info) {
+        encdec.flush();
+        return 0;
+    }
+
     @Override
     public int rename(final String path, final String newName) {
         final MemoryPath p = getPath(path);
@@ -0,0 +1,84 @@
+package ch.unine.vauchers.erasuretester.utils;
+
+import java.util.Arrays;
+
+/**
+ * Approximate access frequencies of long keys, in constant space. Not thread-safe.
+ * <br/>
+ * A count-min sketch of 4 rows of counters saturating at 15. The estimate of a key is the smallest of its 4
+ * counters, so it is never below the real count, up to 15. All the counters are halved after a sample of 10 times the
+ * width of the sketch has been recorded, so that the frequencies follow the recent accesses.
+ */
+public class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+    private final byte[][] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * Constructor
+     * @param expectedKeys The number of keys whose frequency should be told apart, e.g. the capacity of a cache
+     */
+    public FrequencySketch(int expectedKeys) {
+        final int width = Integer.highestOneBit(Math.max(16, expectedKeys - 1) << 1);
+        counters = new byte[DEPTH][width];
+        mask = width - 1;
+        sampleSize = 10 * width;
+    }
+
+    /**
+     * Record an access to a key
+     */
+    public void increment(long key) {
+        boolean added = false;
+        for (int row = 0; row < DEPTH; row++) {
+            final int index = indexOf(key, row);
+            if (counters[row][index] < MAX_COUNT) {
+                counters[row][index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            halve();
+        }
+    }
+
+    /**
+     * @return The approximate number of recent accesses to a key, in [0; 15]
+     */
+    public int frequency(long key) {
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            frequency = Math.min(frequency, counters[row][indexOf(key, row)]);
+        }
+        return frequency;
+    }
+
+    public void clear() {
+        for (byte[] row : counters) {
+            Arrays.fill(row, (byte) 0);
+        }
+        additions = 0;
+    }
+
+    private void halve() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(long key, int row) {
+        long hash = (key + SEEDS[row]) * SEEDS[row];
+        hash ^= hash >>> 32;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 29;
+        return (int) hash & mask;
+    }
+}
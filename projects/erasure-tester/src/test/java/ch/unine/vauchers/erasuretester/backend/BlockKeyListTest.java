@@ -0,0 +1,107 @@
+package ch.unine.vauchers.erasuretester.backend;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class BlockKeyListTest {
+    private static final int TOTAL_SIZE = 14;
+    private static final Random random = new Random(5462346234L);
+
+    private BlockKeyList sut;
+
+    @Before
+    public void setup() {
+        sut = new BlockKeyList(TOTAL_SIZE);
+    }
+
+    @Test
+    public void testGrowWithNoKey() {
+        sut.setNbStripes(3);
+        assertEquals(3, sut.getNbStripes());
+        for (int stripe = 0; stripe < 3; stripe++) {
+            for (int position = 0; position < TOTAL_SIZE; position++) {
+                assertEquals(BlockKeyList.NO_KEY, sut.getKey(stripe, position));
+            }
+        }
+        assertEquals(TOTAL_SIZE, sut.countRuns());
+    }
+
+    @Test
+    public void testConsecutiveKeysAreCompressed() {
+        final int nbStripes = 1000;
+        final long firstKey = 3L * Integer.MAX_VALUE;
+        sut.setNbStripes(nbStripes);
+        for (int stripe = 0; stripe < nbStripes; stripe++) {
+            for (int position = 0; position < TOTAL_SIZE; position++) {
+                sut.setKey(stripe, position, firstKey + position * 100000 + stripe);
+            }
+        }
+
+        assertEquals(TOTAL_SIZE, sut.countRuns());
+        for (int stripe = 0; stripe < nbStripes; stripe++) {
+            for (int position = 0; position < TOTAL_SIZE; position++) {
+                assertEquals(firstKey + position * 100000 + stripe, sut.getKey(stripe, position));
+            }
+        }
+    }
+
+    @Test
+    public void testRandomOverwrites() {
+        final int nbStripes = 200;
+        final long[][] expected = new long[nbStripes][TOTAL_SIZE];
+        sut.setNbStripes(nbStripes);
+        for (int stripe = 0; stripe < nbStripes; stripe++) {
+            for (int position = 0; position < TOTAL_SIZE; position++) {
+                expected[stripe][position] = stripe * TOTAL_SIZE + position;
+                sut.setKey(stripe, position, expected[stripe][position]);
+            }
+        }
+
+        for (int i = 0; i < 5000; i++) {
+            final int stripe = random.nextInt(nbStripes);
+            final int position = random.nextInt(TOTAL_SIZE);
+            final long key = random.nextInt(4) == 0 ? BlockKeyList.NO_KEY : random.nextInt(1000);
+            assertEquals(expected[stripe][position], sut.setKey(stripe, position, key));
+            expected[stripe][position] = key;
+        }
+
+        for (int stripe = 0; stripe < nbStripes; stripe++) {
+            for (int position = 0; position < TOTAL_SIZE; position++) {
+                assertEquals("Stripe " + stripe + ", position " + position, expected[stripe][position], sut.getKey(stripe, position));
+            }
+        }
+    }
+
+    @Test
+    public void testTruncate() {
+        sut.setNbStripes(10);
+        for (int stripe = 0; stripe < 10; stripe++) {
+            for (int position = 0; position < TOTAL_SIZE; position++) {
+                sut.setKey(stripe, position, 7 * (stripe * TOTAL_SIZE + position));
+            }
+        }
+        sut.setNbStripes(4);
+        sut.setNbStripes(6);
+
+        for (int stripe = 0; stripe < 4; stripe++) {
+            for (int position = 0; position < TOTAL_SIZE; position++) {
+                assertEquals(7 * (stripe * TOTAL_SIZE + position), sut.getKey(stripe, position));
+            }
+        }
+        for (int stripe = 4; stripe < 6; stripe++) {
+            for (int position = 0; position < TOTAL_SIZE; position++) {
+                assertEquals(BlockKeyList.NO_KEY, sut.getKey(stripe, position));
+            }
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOutOfBounds() {
+        sut.setNbStripes(2);
+        sut.getKey(2, 0);
+    }
+}
@@ -0,0 +1,101 @@
+package ch.unine.vauchers.erasuretester.backend;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BlocksContainerTest {
+    private static final Random random = new Random(8723465234L);
+
+    @Test
+    public void testRoundTrip() {
+        final int blockSize = 4096;
+        final BlocksContainer container = new BlocksContainer(4, blockSize);
+        final byte[] blocks = new byte[3 * blockSize];
+        random.nextBytes(blocks);
+        for (int i = 0; i < 3; i++) {
+            container.put(blocks, i * blockSize);
+        }
+
+        final BlocksContainer actual = BlocksContainer.fromBytes(BlocksContainer.toBytes(container));
+        assertEquals(blockSize, actual.getBlockSize());
+        assertFalse(actual.isFull());
+
+        final byte[] block = new byte[blockSize];
+        for (int i = 0; i < 3; i++) {
+            actual.get(i, block, 0);
+            for (int j = 0; j < blockSize; j++) {
+                assertEquals(blocks[i * blockSize + j], block[j]);
+            }
+        }
+
+        actual.put(blocks, 0);
+        assertTrue(actual.isFull());
+    }
+
+    @Test
+    public void testLegacyFormat() throws IOException {
+        final BlocksContainer actual = BlocksContainer.fromBytes(legacyContainer());
+        assertLegacyContents(actual);
+    }
+
+    @Test
+    public void testBase64LegacyFormat() throws IOException {
+        final byte[] encoded = Base64.getEncoder().encode(legacyContainer());
+        assertEquals('A', encoded[0]);
+
+        final BlocksContainer actual = BlocksContainer.fromBytes(encoded);
+        assertLegacyContents(actual);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownFormat() {
+        BlocksContainer.fromBytes(new byte[]{(byte) 0xff, 0, 0, 0});
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testTruncated() {
+        final BlocksContainer container = new BlocksContainer(4, 2);
+        container.put(new byte[2], 0);
+        final byte[] bytes = BlocksContainer.toBytes(container);
+        BlocksContainer.fromBytes(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testAbsentBlock() {
+        final BlocksContainer container = new BlocksContainer(4, 2);
+        container.put(new byte[2], 0);
+        container.get(1);
+    }
+
+    /**
+     * @return A container of 10 blocks holding 0, 255 and 42, in the format used before the block size was stored
+     */
+    private static byte[] legacyContainer() throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(10);
+        dos.writeInt(3);
+        dos.writeInt(0);
+        dos.writeInt(255);
+        dos.writeInt(42);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    private static void assertLegacyContents(BlocksContainer actual) {
+        assertEquals(1, actual.getBlockSize());
+        assertFalse(actual.isFull());
+        assertEquals(0, actual.get(0));
+        assertEquals(255, actual.get(1));
+        assertEquals(42, actual.get(2));
+    }
+}
@@ -0,0 +1,92 @@
+package ch.unine.vauchers.erasuretester.backend;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ClusterTopologyTest {
+    private static final String HEALTHY =
+            "e7d1eecce10fd6bb5eb35b9f99a514335d9ba9ca 10.0.0.1:6379 myself,master - 0 0 1 connected 0-8191\n" +
+            "67ed2db8d677e59ec4a4cefb06858cf2a1a89fa1 10.0.0.2:6379 master - 0 1426238316232 2 connected 8192-16383\n";
+    private static final String FAILED =
+            "e7d1eecce10fd6bb5eb35b9f99a514335d9ba9ca 10.0.0.1:6379 myself,master - 0 0 1 connected 0-8191\n" +
+            "67ed2db8d677e59ec4a4cefb06858cf2a1a89fa1 10.0.0.2:6379 master,fail - 1426238316232 1426238316232 2 disconnected 8192-16383\n";
+    private static final String FORGOTTEN =
+            "e7d1eecce10fd6bb5eb35b9f99a514335d9ba9ca 10.0.0.1:6379 myself,master - 0 0 1 connected 0-8191\n";
+    private static final String FIXED =
+            "e7d1eecce10fd6bb5eb35b9f99a514335d9ba9ca 10.0.0.1:6379 myself,master - 0 0 1 connected 0-16383\n";
+    private static final String MIGRATED =
+            "e7d1eecce10fd6bb5eb35b9f99a514335d9ba9ca 10.0.0.1:6379 myself,master - 0 0 1 connected 0-8191 9000-16383\n" +
+            "67ed2db8d677e59ec4a4cefb06858cf2a1a89fa1 10.0.0.2:6379 master - 0 1426238316232 2 connected 8192-8999 [9000->-e7d1eecce10fd6bb5eb35b9f99a514335d9ba9ca]\n";
+
+    private String clusterNodes;
+    private ClusterTopology sut;
+
+    @Before
+    public void setup() {
+        clusterNodes = HEALTHY;
+        sut = new ClusterTopology(() -> clusterNodes);
+    }
+
+    @Test
+    public void testParse() {
+        final String[] masters = new String[JedisTools.REDIS_KEYS_NUMBER];
+        final BitSet failed = ClusterTopology.parse(FAILED, masters);
+        assertEquals(8192, failed.cardinality());
+        assertTrue(failed.get(8192) && failed.get(16383));
+        assertFalse(failed.get(0));
+        assertEquals("67ed2db8d677e59ec4a4cefb06858cf2a1a89fa1", masters[8192]);
+
+        final String[] remainingMasters = new String[JedisTools.REDIS_KEYS_NUMBER];
+        final BitSet uncovered = ClusterTopology.parse(FORGOTTEN, remainingMasters);
+        assertEquals(8192, uncovered.cardinality());
+        assertNull(remainingMasters[8192]);
+    }
+
+    @Test
+    public void testFailedNodeReplaced() {
+        assertTrue(sut.refresh().isEmpty());
+        assertEquals(0, sut.getFailedSlotCount());
+
+        clusterNodes = FAILED;
+        assertTrue(sut.refresh().isEmpty());
+        assertTrue(sut.isSlotFailed(10000));
+        assertFalse(sut.isSlotFailed(42));
+
+        clusterNodes = FORGOTTEN;
+        assertTrue(sut.refresh().isEmpty());
+        assertTrue(sut.isSlotFailed(10000));
+
+        clusterNodes = FIXED;
+        final BitSet lostSlots = sut.refresh();
+        assertEquals(8192, lostSlots.cardinality());
+        assertTrue(lostSlots.get(8192) && lostSlots.get(16383));
+        assertEquals(0, sut.getFailedSlotCount());
+    }
+
+    @Test
+    public void testFailedNodeBack() {
+        sut.refresh();
+        clusterNodes = FAILED;
+        sut.refresh();
+        clusterNodes = HEALTHY;
+        assertTrue(sut.refresh().isEmpty());
+        assertFalse(sut.isSlotFailed(10000));
+    }
+
+    @Test
+    public void testMigrationKeepsKeys() {
+        sut.refresh();
+        clusterNodes = MIGRATED;
+        assertTrue(sut.refresh().isEmpty());
+        assertEquals(0, sut.getFailedSlotCount());
+        clusterNodes = FIXED;
+        assertTrue(sut.refresh().isEmpty());
+    }
+}
@@ -1,8 +1,120 @@
 package ch.unine.vauchers.erasuretester.backend;
 
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 public class MemoryStorageBackendTest extends StorageBackendTest<MemoryStorageBackend> {
     @Override
     protected MemoryStorageBackend createInstance() {
         return new MemoryStorageBackend();
     }
+
+    @Test
+    public void testContainersAreFetchedConcurrently() {
+        final int totalSize = 4;
+        final CyclicBarrier barrier = new CyclicBarrier(totalSize);
+        final MemoryStorageBackend backend = new MemoryStorageBackend() {
+            @Override
+            public Optional<byte[]> retrieveAggregatedBlocks(long key) {
+                try {
+                    // Only returns once all the containers are being fetched at the same time
+                    barrier.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+                    throw new AssertionError("The containers have not been fetched concurrently", e);
+                }
+                return super.retrieveAggregatedBlocks(key);
+            }
+
+            @Override
+            protected CompletableFuture<List<Optional<byte[]>>> retrieveAggregatedBlocksAsync(long[] keys) {
+                return retrieveAggregatedBlocksConcurrently(keys);
+            }
+        };
+        backend.defineTotalSize(totalSize);
+
+        final long[] keys = new long[totalSize];
+        for (int position = 0; position < totalSize; position++) {
+            keys[position] = backend.storeBlock(position, position);
+        }
+        backend.flushAll();
+        backend.clearReadCache();
+
+        final byte[] values = new byte[totalSize];
+        final boolean[] found = new boolean[totalSize];
+        backend.retrieveBlocks(keys, values, found);
+        for (int position = 0; position < totalSize; position++) {
+            assertTrue(found[position] && values[position] == position);
+        }
+    }
+
+    @Test
+    public void testAvailabilityIsIndexed() {
+        final AtomicInteger lookups = new AtomicInteger();
+        final MemoryStorageBackend backend = new MemoryStorageBackend() {
+            @Override
+            public boolean isAggregatedBlockAvailable(long key) {
+                lookups.incrementAndGet();
+                return super.isAggregatedBlockAvailable(key);
+            }
+        };
+        backend.defineTotalSize(4);
+        final long key = backend.storeBlock(42, 1);
+        backend.flushAll();
+
+        // Written by this backend, and absent
+        assertTrue(backend.isBlockAvailable(key));
+        assertFalse(backend.isBlockAvailable(key + 2 * backend.bufferSize));
+        assertFalse(backend.isBlockAvailable(key + 2 * backend.bufferSize));
+        assertEquals(1, lookups.get());
+
+        // The node holding position 1 has lost its data
+        backend.blocksStorage.clear();
+        assertTrue(backend.isBlockAvailable(key));
+        backend.getAvailabilityIndex().invalidatePosition(1);
+        assertFalse(backend.isBlockAvailable(key));
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void testUnreachableContainersAreNotIndexed() {
+        final AtomicInteger lookups = new AtomicInteger();
+        final boolean[] unreachable = {true};
+        final MemoryStorageBackend backend = new MemoryStorageBackend() {
+            @Override
+            public boolean isAggregatedBlockAvailable(long key) {
+                lookups.incrementAndGet();
+                return super.isAggregatedBlockAvailable(key);
+            }
+
+            @Override
+            protected boolean isAggregatedBlockUnreachable(long key) {
+                return unreachable[0];
+            }
+        };
+        backend.defineTotalSize(4);
+        final long key = backend.storeBlock(42, 1);
+        backend.flushAll();
+        backend.clearReadCache();
+
+        assertFalse(backend.isBlockAvailable(key));
+        assertFalse(backend.retrieveBlock(key).isPresent());
+        assertEquals(AvailabilityIndex.Availability.UNKNOWN, backend.getAvailabilityIndex().get(key / backend.bufferSize));
+
+        // The node is back
+        unreachable[0] = false;
+        assertTrue(backend.isBlockAvailable(key));
+        assertEquals(1, lookups.get());
+    }
 }
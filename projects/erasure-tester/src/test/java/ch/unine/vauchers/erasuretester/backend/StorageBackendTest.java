@@ -1,13 +1,11 @@
 package ch.unine.vauchers.erasuretester.backend;
 
-import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.ints.IntList;
-import it.unimi.dsi.fastutil.ints.IntListIterator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.ExecutionException;
@@ -17,6 +15,7 @@ import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public abstract class StorageBackendTest<T extends StorageBackend> {
     private T sut;
@@ -45,12 +44,56 @@ public abstract class StorageBackendTest<T extends StorageBackend> {
         assertFalse(sut.isBlockAvailable(439754395));
     }
 
-    private void testReadWrite(BiFunction<Integer, Integer, Integer> storeFunction, Function<Integer, Integer> retrieveFunction) {
+    @Test
+    public void testBatchedReadWrite() {
+        final byte[] blocks = new byte[3 * sut.bufferSize];
+        random.nextBytes(blocks);
+        final long[] keys = new long[blocks.length];
+        sut.storeBlocks(blocks, 1, keys);
+        sut.flushAll();
+        sut.clearReadCache();
+
+        final long[] wanted = {keys[0], keys[blocks.length - 1], keys[sut.bufferSize + 5], keys[0], 439754395};
+        final byte[] values = new byte[wanted.length];
+        final boolean[] found = new boolean[wanted.length];
+        sut.retrieveBlocks(wanted, values, found);
+
+        assertEquals(blocks[0], values[0]);
+        assertEquals(blocks[blocks.length - 1], values[1]);
+        assertEquals(blocks[sut.bufferSize + 5], values[2]);
+        assertEquals(values[0], values[3]);
+        assertTrue(found[0] && found[1] && found[2] && found[3]);
+        assertFalse(found[4]);
+    }
+
+    @Test
+    public void testAsyncBatchedRead() throws ExecutionException, InterruptedException {
+        final byte[] blocks = new byte[2 * sut.bufferSize];
+        random.nextBytes(blocks);
+        final long[] keys0 = new long[sut.bufferSize];
+        final long[] keys1 = new long[sut.bufferSize];
+        sut.storeBlocks(Arrays.copyOfRange(blocks, 0, sut.bufferSize), 0, keys0);
+        sut.storeBlocks(Arrays.copyOfRange(blocks, sut.bufferSize, blocks.length), 1, keys1);
+        sut.flushAll();
+        sut.clearReadCache();
+
+        final long[] wanted = {keys0[3], keys1[7], 439754395};
+        final byte[] values = new byte[wanted.length];
+        final boolean[] found = new boolean[wanted.length];
+        sut.retrieveBlocksAsync(wanted, values, found).get();
+
+        assertEquals(blocks[3], values[0]);
+        assertEquals(blocks[sut.bufferSize + 7], values[1]);
+        assertTrue(found[0] && found[1]);
+        assertFalse(found[2]);
+    }
+
+    private void testReadWrite(BiFunction<Integer, Integer, Long> storeFunction, Function<Long, Integer> retrieveFunction) {
         final int testSize = 4 * sut.bufferSize;
-        List<Integer> keys = new ArrayList<>(testSize);
+        List<Long> keys = new ArrayList<>(testSize);
         List<Integer> values = new ArrayList<>(testSize);
         for (int i = 0; i < testSize; i++) {
-            values.add(random.nextInt());
+            values.add(random.nextInt(256));
         }
 
         values.stream().forEachOrdered(value -> keys.add(storeFunction.apply(value, Math.abs(value % 2))));
@@ -63,27 +106,26 @@ public abstract class StorageBackendTest<T extends StorageBackend> {
     @Test
     public void testFileMetadataStorage() {
         FileMetadata expected = new FileMetadata();
-        IntList blockKeys = new IntArrayList(30);
+        BlockKeyList blockKeys = new BlockKeyList(3);
+        blockKeys.setNbStripes(10);
+        final long[] keys = new long[30];
         for (int i = 0; i < 30; i++) {
-            blockKeys.add((int) (Math.random() * (double) Long.MAX_VALUE));
+            keys[i] = (long) (Math.random() * (double) Long.MAX_VALUE);
+            blockKeys.setKey(i / 3, i % 3, keys[i]);
         }
 
-        expected.setContentsSize(291643824);
+        expected.setContentsSize(5L * Integer.MAX_VALUE);
         expected.setBlockKeys(blockKeys);
         sut.setFileMetadata("somewhere", expected);
 
         FileMetadata actual = sut.getFileMetadata("somewhere").get();
-        assertEquals(291643824, actual.getContentsSize());
+        assertEquals(5L * Integer.MAX_VALUE, actual.getContentsSize());
 
-        final IntListIterator iterator1 = blockKeys.iterator();
-        final IntList actualBlocks = actual.getBlockKeys().get();
-        final IntListIterator iterator2 = actualBlocks.iterator();
-
-        while (iterator1.hasNext() && iterator2.hasNext()) {
-            assertEquals(iterator1.next(), iterator2.next());
+        final BlockKeyList actualBlocks = actual.getBlockKeys().get();
+        assertEquals(10, actualBlocks.getNbStripes());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(keys[i], actualBlocks.getKey(i / 3, i % 3));
         }
-
-        assertEquals(blockKeys.size(), actualBlocks.size());
     }
 
     @Test
@@ -92,7 +134,7 @@ public abstract class StorageBackendTest<T extends StorageBackend> {
 
         for (int i = 0; i < 2000000; i++) {
             final int position = random.nextInt(14);
-            final int blockKey = sut.storeBlock(0, position);
+            final long blockKey = sut.storeBlock(0, position);
             assertEquals("Key=" + blockKey, position, sut.computePositionWithBlockKey(blockKey));
         }
     }
@@ -103,8 +145,8 @@ public abstract class StorageBackendTest<T extends StorageBackend> {
 
         for (int i = 0; i < 2000000; i++) {
             final int position = random.nextInt(14);
-            final int blockKey = sut.storeBlock(0, position);
-            final int redisKey = blockKey / sut.bufferSize;
+            final long blockKey = sut.storeBlock(0, position);
+            final long redisKey = blockKey / sut.bufferSize;
             assertEquals("Key=" + blockKey, position, sut.computePositionWithRedisKey(redisKey));
         }
     }
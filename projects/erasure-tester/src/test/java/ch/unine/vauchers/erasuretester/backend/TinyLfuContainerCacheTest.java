@@ -0,0 +1,99 @@
+package ch.unine.vauchers.erasuretester.backend;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TinyLfuContainerCacheTest {
+    private static final int BLOCK_SIZE = 1024;
+    private static final int CONTAINER_SIZE = new BlocksContainer(4, BLOCK_SIZE).getMemorySize();
+    /**
+     * Room for 10 containers per segment
+     */
+    private static final long CAPACITY = 10L * CONTAINER_SIZE * TinyLfuContainerCache.SEGMENTS;
+
+    private TinyLfuContainerCache sut;
+
+    @Before
+    public void setup() {
+        sut = new TinyLfuContainerCache(CAPACITY);
+    }
+
+    @Test
+    public void testGetPut() {
+        final BlocksContainer container = newContainer();
+        assertNull(sut.get(42));
+        sut.put(42, container);
+        assertSame(container, sut.get(42));
+
+        assertEquals(1, sut.getStatistics().getHits());
+        assertEquals(1, sut.getStatistics().getMisses());
+    }
+
+    @Test
+    public void testBoundedInBytes() {
+        for (long key = 0; key < 1000; key++) {
+            sut.put(key, newContainer());
+        }
+
+        int cached = 0;
+        for (long key = 0; key < 1000; key++) {
+            if (sut.get(key) != null) {
+                cached++;
+            }
+        }
+        assertTrue(cached <= CAPACITY / CONTAINER_SIZE);
+        assertTrue(cached > 0);
+        assertTrue(sut.getStatistics().getEvictions() + sut.getStatistics().getRejections() >= 1000 - cached);
+    }
+
+    @Test
+    public void testScanResistance() {
+        final int hotContainers = 50;
+        for (int round = 0; round < 5; round++) {
+            for (long key = 0; key < hotContainers; key++) {
+                if (sut.get(key) == null) {
+                    sut.put(key, newContainer());
+                }
+            }
+        }
+
+        // Read many containers once
+        for (long key = 1000; key < 3000; key++) {
+            assertNull(sut.get(key));
+            sut.put(key, newContainer());
+        }
+
+        int hotCached = 0;
+        for (long key = 0; key < hotContainers; key++) {
+            if (sut.get(key) != null) {
+                hotCached++;
+            }
+        }
+        assertTrue("Only " + hotCached + " hot containers survived the scan", hotCached >= hotContainers * 3 / 4);
+    }
+
+    @Test
+    public void testOversizedContainerIsRejected() {
+        sut.put(1, new BlocksContainer(1000, BLOCK_SIZE));
+        assertNull(sut.get(1));
+        assertEquals(1, sut.getStatistics().getRejections());
+    }
+
+    @Test
+    public void testClear() {
+        sut.put(1, newContainer());
+        assertNotNull(sut.get(1));
+        sut.clear();
+        assertNull(sut.get(1));
+    }
+
+    private static BlocksContainer newContainer() {
+        return new BlocksContainer(4, BLOCK_SIZE);
+    }
+}
@@ -0,0 +1,90 @@
+package ch.unine.vauchers.erasuretester.erasure;
+
+import ch.unine.vauchers.erasuretester.backend.CacheStatistics;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DecodedStripeCacheTest {
+    private static final int STRIPE_SIZE = 10;
+
+    private CacheStatistics statistics;
+    private DecodedStripeCache sut;
+    private final byte[] dest = new byte[STRIPE_SIZE];
+
+    @Before
+    public void setup() {
+        statistics = new CacheStatistics();
+        sut = new DecodedStripeCache(3 * STRIPE_SIZE, statistics);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        sut.put("a", 0, stripe(0));
+        sut.put("a", 1, stripe(1));
+        sut.put("b", 0, stripe(2));
+        assertTrue(sut.get("a", 0, dest));
+        assertArrayEquals(stripe(0), dest);
+
+        sut.put("b", 1, stripe(3));
+        assertEquals(3 * STRIPE_SIZE, sut.getSize());
+        assertFalse(sut.get("a", 1, dest));
+        assertTrue(sut.get("a", 0, dest));
+        assertTrue(sut.get("b", 0, dest));
+        assertTrue(sut.get("b", 1, dest));
+        assertArrayEquals(stripe(3), dest);
+
+        assertEquals(1, statistics.getEvictions());
+        assertEquals(1, statistics.getMisses());
+        assertEquals(4, statistics.getHits());
+    }
+
+    @Test
+    public void testInvalidate() {
+        sut.put("a", 0, stripe(0));
+        sut.put("a", 5, stripe(1));
+        sut.put("b", 5, stripe(2));
+
+        sut.invalidate("a", 1, Integer.MAX_VALUE);
+        assertTrue(sut.get("a", 0, dest));
+        assertFalse(sut.get("a", 5, dest));
+        assertTrue(sut.get("b", 5, dest));
+
+        sut.invalidate("a", 0, 1);
+        assertFalse(sut.get("a", 0, dest));
+        assertEquals(STRIPE_SIZE, sut.getSize());
+    }
+
+    @Test
+    public void testContentsCopied() {
+        final byte[] contents = stripe(0);
+        sut.put("a", 0, contents);
+        contents[0] = 42;
+        sut.get("a", 0, dest);
+        assertArrayEquals(stripe(0), dest);
+
+        sut.put("a", 0, stripe(1));
+        assertEquals(STRIPE_SIZE, sut.getSize());
+        sut.get("a", 0, dest);
+        assertArrayEquals(stripe(1), dest);
+    }
+
+    @Test
+    public void testTooLarge() {
+        sut.put("a", 0, new byte[4 * STRIPE_SIZE]);
+        assertEquals(0, sut.getSize());
+        assertEquals(1, statistics.getRejections());
+    }
+
+    private static byte[] stripe(int value) {
+        final byte[] contents = new byte[STRIPE_SIZE];
+        for (int i = 0; i < STRIPE_SIZE; i++) {
+            contents[i] = (byte) (value * STRIPE_SIZE + i);
+        }
+        return contents;
+    }
+}
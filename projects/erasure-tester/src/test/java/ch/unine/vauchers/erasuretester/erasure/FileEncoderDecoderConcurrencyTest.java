@@ -0,0 +1,72 @@
+package ch.unine.vauchers.erasuretester.erasure;
+
+import ch.unine.vauchers.erasuretester.backend.MemoryStorageBackend;
+import ch.unine.vauchers.erasuretester.erasure.codes.ReedSolomonCode;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads and writes files from many threads at once through a single FileEncoderDecoder.
+ */
+public class FileEncoderDecoderConcurrencyTest {
+    private static final int NB_THREADS = 8;
+    private static final int NB_ITERATIONS = 20;
+
+    private FileEncoderDecoder sut;
+
+    @Before
+    public void setup() {
+        sut = new FileEncoderDecoder(new ReedSolomonCode(10, 4), new MemoryStorageBackend());
+    }
+
+    @Test
+    public void testConcurrentReadsAndWrites() throws Exception {
+        final byte[] shared = FileEncoderDecoderTestUtils.createRandomBigByteBuffer();
+        final String sharedPath = FileEncoderDecoderTestUtils.generateRandomPath();
+        sut.writeFile(sharedPath, shared.length, 0, ByteBuffer.wrap(shared.clone()));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(NB_THREADS);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < NB_THREADS; t++) {
+            final byte[] own = FileEncoderDecoderTestUtils.createRandomBigByteBuffer();
+            final byte[] patch = new byte[777];
+            FileEncoderDecoderTestUtils.random.nextBytes(patch);
+            final String ownPath = FileEncoderDecoderTestUtils.generateRandomPath();
+
+            futures.add(executor.submit(() -> {
+                sut.writeFile(ownPath, own.length, 0, ByteBuffer.wrap(own.clone()));
+                for (int i = 0; i < NB_ITERATIONS; i++) {
+                    final int offset = (i * 1031) % (own.length - patch.length);
+                    sut.writeFile(ownPath, patch.length, offset, ByteBuffer.wrap(patch));
+                    System.arraycopy(patch, 0, own, offset, patch.length);
+
+                    Assert.assertArrayEquals(own, readWholeFile(ownPath, own.length));
+                    Assert.assertArrayEquals(shared, readWholeFile(sharedPath, shared.length));
+                }
+                return null;
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private byte[] readWholeFile(String path, int size) throws Exception {
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        sut.readFile(path, size, 0, buffer);
+        return buffer.array();
+    }
+}
@@ -22,9 +22,9 @@ public abstract class FileEncoderDecoderFaultyBackendTest extends FileEncoderDec
                 .flatMap(this::instantiateFaultyBackends)
                 .map(faultyStorageBackend -> {
                     if (erasureCode instanceof SimpleRegeneratingCode) {
-                        return new SimpleRegeneratingFileEncoderDecoder((SimpleRegeneratingCode) erasureCode, faultyStorageBackend);
+                        return new SimpleRegeneratingFileEncoderDecoder((SimpleRegeneratingCode) erasureCode, faultyStorageBackend, getBlockSize());
                     } else {
-                        return new FileEncoderDecoder(erasureCode, faultyStorageBackend);
+                        return new FileEncoderDecoder(erasureCode, faultyStorageBackend, getBlockSize());
                     }
                 })
                 .collect(Collectors.toList());
@@ -34,6 +34,10 @@ public abstract class FileEncoderDecoderFaultyBackendTest extends FileEncoderDec
 
     protected abstract int getMaxFaults();
 
+    protected int getBlockSize() {
+        return FileEncoderDecoder.DEFAULT_BLOCK_SIZE;
+    }
+
     private Stream<FaultyStorageBackend> instantiateFaultyBackends(int numberOfFailures) {
         return IntStream.range(0, 10)
                 .boxed()
@@ -52,22 +56,28 @@ public abstract class FileEncoderDecoderFaultyBackendTest extends FileEncoderDec
             this.faultyPositions = faultyPositions;
         }
 
-        private boolean isKeyAvailable(int key) {
-            int position = Math.floorMod(key / bufferSize, totalSize);
+        private boolean isKeyAvailable(long key) {
+            int position = computePositionWithBlockKey(key);
             return !faultyPositions.contains(position);
         }
 
         @Override
-        public boolean isBlockAvailable(int key) {
+        public boolean isBlockAvailable(long key) {
             return isKeyAvailable(key) && super.isBlockAvailable(key);
         }
 
         @Override
-        public Optional<Integer> retrieveBlock(int key) {
-            if (isKeyAvailable(key)) {
-                return super.retrieveBlock(key);
-            } else {
-                return Optional.empty();
+        public boolean retrieveBlock(long key, byte[] dest, int offset) {
+            return isKeyAvailable(key) && super.retrieveBlock(key, dest, offset);
+        }
+
+        @Override
+        public void retrieveBlocks(long[] keys, byte[] dest, boolean[] found) {
+            super.retrieveBlocks(keys, dest, found);
+            for (int i = 0; i < keys.length; i++) {
+                if (!isKeyAvailable(keys[i])) {
+                    found[i] = false;
+                }
             }
         }
 
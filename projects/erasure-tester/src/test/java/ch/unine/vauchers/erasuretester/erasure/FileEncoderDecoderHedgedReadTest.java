@@ -0,0 +1,94 @@
+package ch.unine.vauchers.erasuretester.erasure;
+
+import ch.unine.vauchers.erasuretester.backend.MemoryStorageBackend;
+import ch.unine.vauchers.erasuretester.erasure.codes.ReedSolomonCode;
+import ch.unine.vauchers.erasuretester.erasure.codes.TooManyErasedLocations;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileEncoderDecoderHedgedReadTest {
+    private static final int SLOW_POSITION = 7;
+    private static final long SLOW_DELAY_MILLIS = 3000;
+
+    private SlowBackend backend;
+    private FileEncoderDecoder sut;
+    private byte[] contents;
+
+    @Before
+    public void setup() {
+        backend = new SlowBackend();
+        sut = new FileEncoderDecoder(new ReedSolomonCode(10, 4), backend, 16);
+        contents = new byte[1000];
+        FileEncoderDecoderTestUtils.random.nextBytes(contents);
+        sut.writeFile("hedged", contents.length, 0, ByteBuffer.wrap(contents));
+        backend.clearReadCache();
+    }
+
+    @Test
+    public void testStragglerIsBypassed() throws TooManyErasedLocations {
+        sut.enableHedgedReads(2, 10);
+        backend.slow = true;
+
+        final long start = System.nanoTime();
+        assertArrayEquals(contents, readWholeFile());
+        assertTrue("The read waited for the slow position", System.nanoTime() - start < SLOW_DELAY_MILLIS * 1000000 / 2);
+
+        final HedgingStatistics statistics = sut.getHedgingStatistics();
+        assertTrue(statistics.getStripesRead() > 0);
+        assertTrue(statistics.getHedgesTriggered() > 0);
+        assertTrue(statistics.getStragglersBypassed() > 0);
+    }
+
+    @Test
+    public void testNoHedgeWhenDataArrivesInTime() throws TooManyErasedLocations {
+        sut.enableHedgedReads(2, 1000);
+
+        assertArrayEquals(contents, readWholeFile());
+        assertEquals(0, sut.getHedgingStatistics().getHedgesTriggered());
+        assertEquals(0, sut.getHedgingStatistics().getStragglersBypassed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBudgetAboveParity() {
+        sut.enableHedgedReads(5, 10);
+    }
+
+    private byte[] readWholeFile() throws TooManyErasedLocations {
+        final ByteBuffer buffer = ByteBuffer.allocate(contents.length);
+        sut.readFile("hedged", contents.length, 0, buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Remote-like backend, whose containers of one position take a long time to arrive
+     */
+    private static class SlowBackend extends MemoryStorageBackend {
+        volatile boolean slow;
+
+        @Override
+        public Optional<byte[]> retrieveAggregatedBlocks(long key) {
+            if (slow && computePositionWithRedisKey(key) == SLOW_POSITION) {
+                try {
+                    Thread.sleep(SLOW_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.retrieveAggregatedBlocks(key);
+        }
+
+        @Override
+        protected CompletableFuture<List<Optional<byte[]>>> retrieveAggregatedBlocksAsync(long[] keys) {
+            return retrieveAggregatedBlocksConcurrently(keys);
+        }
+    }
+}
@@ -2,11 +2,13 @@ package ch.unine.vauchers.erasuretester.erasure;
 
 import ch.unine.vauchers.erasuretester.backend.MemoryStorageBackend;
 import ch.unine.vauchers.erasuretester.erasure.codes.ReedSolomonCode;
+import ch.unine.vauchers.erasuretester.erasure.codes.TooManyErasedLocations;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.util.Collections;
-import java.util.stream.IntStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class FileEncoderDecoderReedSolomonErasureTest extends FileEncoderDecoderTest {
@@ -20,50 +22,66 @@ public class FileEncoderDecoderReedSolomonErasureTest extends FileEncoderDecoder
     }
 
     @Test
-    public void testComputeDataSize() {
-        assertEquals(0, sut.nextBoundary(0));
-        assertEquals(14, sut.nextBoundary(1));
-        assertEquals(14, sut.nextBoundary(9));
-        assertEquals(14, sut.nextBoundary(10));
-        assertEquals(28, sut.nextBoundary(11));
-        assertEquals(28, sut.nextBoundary(20));
-        assertEquals(42, sut.nextBoundary(21));
-        assertEquals(68824, sut.nextBoundary(45056 + 4096));
+    public void testLargeOffset() throws TooManyErasedLocations {
+        final long offset = 5L * Integer.MAX_VALUE + 3;
+        final byte[] contents = FileEncoderDecoderTestUtils.createRandomBigByteBuffer();
+        sut.writeFile("large", contents.length, offset, ByteBuffer.wrap(contents));
+        assertEquals(offset + contents.length, sut.sizeOfFile("large"));
+
+        final ByteBuffer results = ByteBuffer.allocate(contents.length);
+        sut.readFile("large", contents.length, offset, results);
+        assertArrayEquals(contents, results.array());
+
+        sut.truncate("large", offset + 1);
+        assertEquals(offset + 1, sut.sizeOfFile("large"));
     }
 
     @Test
-    public void testPreviousBoundary() {
-        assertEquals(0, sut.previousBoundary(0));
-        assertEquals(0, sut.previousBoundary(1));
-        assertEquals(0, sut.previousBoundary(9));
-        assertEquals(14, sut.previousBoundary(10));
-        assertEquals(14, sut.previousBoundary(11));
-        assertEquals(14, sut.previousBoundary(13));
-        assertEquals(14, sut.previousBoundary(14));
-        assertEquals(14, sut.previousBoundary(19));
-        assertEquals(28, sut.previousBoundary(20));
-        assertEquals(28, sut.previousBoundary(29));
-        assertEquals(42, sut.previousBoundary(30));
-        assertEquals(42, sut.previousBoundary(34));
-        assertEquals(63070, sut.previousBoundary(45056));
+    public void testSparseFileWithLargeBlocks() throws TooManyErasedLocations {
+        final FileEncoderDecoder fed = new FileEncoderDecoder(new ReedSolomonCode(10, 4), new MemoryStorageBackend(), 4);
+        final byte[] contents = new byte[100];
+        FileEncoderDecoderTestUtils.random.nextBytes(contents);
+        fed.writeFile("sparse", contents.length, 1000, ByteBuffer.wrap(contents));
+
+        final byte[] expected = new byte[1100];
+        System.arraycopy(contents, 0, expected, 1000, contents.length);
+        final ByteBuffer results = ByteBuffer.allocate(expected.length);
+        fed.readFile("sparse", expected.length, 0, results);
+        assertArrayEquals(expected, results.array());
+
+        // The holes are not damaged stripes
+        fed.repairAllFiles();
+        assertEquals(0, fed.getRepairStatistics().getStripesRepaired());
+        assertEquals(0, fed.getRepairStatistics().getStripesUnrepairable());
     }
 
     @Test
-    public void testLowerBytesToDrop() {
-        IntStream.rangeClosed(0, 9).forEach((index) -> assertEquals(index, sut.lowerBytesToDrop(index)));
-        IntStream.rangeClosed(10, 19).forEach((index) -> assertEquals(index - 10, sut.lowerBytesToDrop(index)));
-        IntStream.rangeClosed(20, 29).forEach((index) -> assertEquals(index - 20, sut.lowerBytesToDrop(index)));
-        IntStream.rangeClosed(30, 39).forEach((index) -> assertEquals(index - 30, sut.lowerBytesToDrop(index)));
+    public void testStripeCount() {
+        assertEquals(0, sut.stripeCount(0));
+        assertEquals(1, sut.stripeCount(1));
+        assertEquals(1, sut.stripeCount(9));
+        assertEquals(1, sut.stripeCount(10));
+        assertEquals(2, sut.stripeCount(11));
+        assertEquals(2, sut.stripeCount(20));
+        assertEquals(3, sut.stripeCount(21));
+        assertEquals(4916, sut.stripeCount(45056 + 4096));
     }
 
     @Test
-    public void testHigherBytesToDrop() {
-        assertEquals(10, sut.higherBytesToDrop(0));
-        assertEquals(9, sut.higherBytesToDrop(1));
-        assertEquals(1, sut.higherBytesToDrop(9));
-        assertEquals(0, sut.higherBytesToDrop(10));
-        assertEquals(9, sut.higherBytesToDrop(11));
-        assertEquals(1, sut.higherBytesToDrop(19));
-        assertEquals(0, sut.higherBytesToDrop(20));
+    public void testStripeOf() {
+        assertEquals(0, sut.stripeOf(0));
+        assertEquals(0, sut.stripeOf(1));
+        assertEquals(0, sut.stripeOf(9));
+        assertEquals(1, sut.stripeOf(10));
+        assertEquals(1, sut.stripeOf(19));
+        assertEquals(2, sut.stripeOf(20));
+        assertEquals(3, sut.stripeOf(34));
+        assertEquals(4505, sut.stripeOf(45056));
+        assertEquals(Integer.MAX_VALUE, sut.stripeOf(10L * Integer.MAX_VALUE + 9));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testStripeOfTooLarge() {
+        sut.stripeOf(10L * Integer.MAX_VALUE + 10);
     }
 }
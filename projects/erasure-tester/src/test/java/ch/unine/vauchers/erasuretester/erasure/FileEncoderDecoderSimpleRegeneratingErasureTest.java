@@ -2,12 +2,77 @@ package ch.unine.vauchers.erasuretester.erasure;
 
 import ch.unine.vauchers.erasuretester.backend.MemoryStorageBackend;
 import ch.unine.vauchers.erasuretester.erasure.codes.SimpleRegeneratingCode;
+import ch.unine.vauchers.erasuretester.erasure.codes.TooManyErasedLocations;
+import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.util.Collections;
 
+import static org.junit.Assert.assertArrayEquals;
+
 public class FileEncoderDecoderSimpleRegeneratingErasureTest extends FileEncoderDecoderTest {
     @Override
     protected Iterable<FileEncoderDecoder> createEncoderDecoder() {
         return Collections.singleton(new SimpleRegeneratingFileEncoderDecoder(new SimpleRegeneratingCode(10, 6, 5), new MemoryStorageBackend()));
     }
+
+    /**
+     * A block that is believed to be available, but cannot be fetched, must be decoded rather than read as zeros
+     */
+    @Test
+    public void testUnexpectedlyMissingBlock() {
+        final SimpleRegeneratingCode code = new SimpleRegeneratingCode(10, 6, 5);
+        final int paritySize = code.paritySize();
+        final int totalSize = paritySize + code.stripeSize();
+        final byte[] contents = new byte[code.stripeSize()];
+        FileEncoderDecoderTestUtils.random.nextBytes(contents);
+
+        for (int lost = paritySize; lost < totalSize; lost++) {
+            for (int hidden = paritySize; hidden < totalSize; hidden++) {
+                if (hidden == lost) {
+                    continue;
+                }
+                final LyingStorageBackend backend = new LyingStorageBackend(lost, hidden);
+                final FileEncoderDecoder sut = new SimpleRegeneratingFileEncoderDecoder(code, backend);
+                sut.writeFile("path", contents.length, 0, ByteBuffer.wrap(contents));
+
+                final ByteBuffer results = ByteBuffer.allocate(contents.length);
+                try {
+                    sut.readFile("path", contents.length, 0, results);
+                } catch (TooManyErasedLocations e) {
+                    continue;
+                }
+                assertArrayEquals("Lost " + lost + ", hidden " + hidden, contents, results.array());
+            }
+        }
+    }
+
+    /**
+     * Loses the blocks of two positions, but only reports the first one as unavailable
+     */
+    private static class LyingStorageBackend extends MemoryStorageBackend {
+        private final int lost;
+        private final int hidden;
+
+        private LyingStorageBackend(int lost, int hidden) {
+            this.lost = lost;
+            this.hidden = hidden;
+        }
+
+        @Override
+        public boolean isBlockAvailable(long key) {
+            return computePositionWithBlockKey(key) != lost && super.isBlockAvailable(key);
+        }
+
+        @Override
+        public void retrieveBlocks(long[] keys, byte[] dest, boolean[] found) {
+            super.retrieveBlocks(keys, dest, found);
+            for (int i = 0; i < keys.length; i++) {
+                final int position = computePositionWithBlockKey(keys[i]);
+                if (position == lost || position == hidden) {
+                    found[i] = false;
+                }
+            }
+        }
+    }
 }
@@ -64,6 +64,49 @@ public abstract class FileEncoderDecoderTest {
         testUnalignedFile(10, 0, array);
     }
 
+    @Test
+    public void testOverwriteUnaligned() {
+        for (FileEncoderDecoder sut : suts) {
+            final byte[] expected = FileEncoderDecoderTestUtils.createRandomBigByteBuffer();
+            final byte[] patch = new byte[1003];
+            FileEncoderDecoderTestUtils.random.nextBytes(patch);
+            final String path = FileEncoderDecoderTestUtils.generateRandomPath();
+
+            sut.writeFile(path, expected.length, 0, ByteBuffer.wrap(expected.clone()));
+            sut.writeFile(path, patch.length, 4567, ByteBuffer.wrap(patch));
+            System.arraycopy(patch, 0, expected, 4567, patch.length);
+
+            final ByteBuffer byteBufferOut = ByteBuffer.allocate(expected.length);
+            try {
+                sut.readFile(path, expected.length, 0, byteBufferOut);
+            } catch (TooManyErasedLocations e) {
+                continue;
+            }
+            Assert.assertArrayEquals("EncoderDecoder: " + sut.toString(), expected, byteBufferOut.array());
+        }
+    }
+
+    @Test
+    public void testWritePastEnd() {
+        for (FileEncoderDecoder sut : suts) {
+            final byte[] patch = new byte[100];
+            FileEncoderDecoderTestUtils.random.nextBytes(patch);
+            final String path = FileEncoderDecoderTestUtils.generateRandomPath();
+
+            sut.writeFile(path, patch.length, 1000, ByteBuffer.wrap(patch));
+            final byte[] expected = new byte[1100];
+            System.arraycopy(patch, 0, expected, 1000, patch.length);
+
+            final ByteBuffer byteBufferOut = ByteBuffer.allocate(expected.length);
+            try {
+                sut.readFile(path, expected.length, 0, byteBufferOut);
+            } catch (TooManyErasedLocations e) {
+                continue;
+            }
+            Assert.assertArrayEquals("EncoderDecoder: " + sut.toString(), expected, byteBufferOut.array());
+        }
+    }
+
     private void testUnalignedFile(int size, int offset) throws TooManyErasedLocations {
         testUnalignedFile(size, offset, FileEncoderDecoderTestUtils.createRandomBigByteBuffer());
     }
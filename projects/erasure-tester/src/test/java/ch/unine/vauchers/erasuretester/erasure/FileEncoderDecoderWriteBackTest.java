@@ -0,0 +1,105 @@
+package ch.unine.vauchers.erasuretester.erasure;
+
+import ch.unine.vauchers.erasuretester.backend.MemoryStorageBackend;
+import ch.unine.vauchers.erasuretester.erasure.codes.ReedSolomonCode;
+import ch.unine.vauchers.erasuretester.erasure.codes.TooManyErasedLocations;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileEncoderDecoderWriteBackTest {
+    private CountingBackend backend;
+    private FileEncoderDecoder sut;
+
+    @Before
+    public void setup() {
+        backend = new CountingBackend();
+        sut = new FileEncoderDecoder(new ReedSolomonCode(10, 4), backend, 16);
+    }
+
+    @After
+    public void tearDown() {
+        sut.close();
+    }
+
+    @Test
+    public void testSmallWritesShareContainers() throws TooManyErasedLocations {
+        sut.enableWriteBack(0);
+        final byte[] contents = new byte[1000];
+        FileEncoderDecoderTestUtils.random.nextBytes(contents);
+        for (int offset = 0; offset < contents.length; offset += 160) {
+            final int size = Math.min(160, contents.length - offset);
+            sut.writeFile("small", size, offset, ByteBuffer.wrap(contents, offset, size).slice());
+        }
+        assertEquals(0, backend.countContainers());
+
+        // Buffered blocks are readable before being flushed
+        assertArrayEquals(contents, readWholeFile("small", contents.length));
+
+        sut.flush();
+        assertEquals(14, backend.countContainers());
+        backend.clearReadCache();
+        assertArrayEquals(contents, readWholeFile("small", contents.length));
+    }
+
+    @Test
+    public void testPeriodicFlush() throws InterruptedException {
+        sut.enableWriteBack(20);
+        final byte[] contents = new byte[100];
+        sut.writeFile("periodic", contents.length, 0, ByteBuffer.wrap(contents));
+
+        for (int i = 0; i < 100 && backend.countContainers() == 0; i++) {
+            Thread.sleep(20);
+        }
+        assertTrue(backend.countContainers() > 0);
+    }
+
+    @Test
+    public void testWriteThrough() {
+        final byte[] contents = new byte[100];
+        sut.writeFile("through", contents.length, 0, ByteBuffer.wrap(contents));
+        assertEquals(14, backend.countContainers());
+    }
+
+    @Test
+    public void testFlushIsBatched() {
+        sut.enableWriteBack(60000);
+        final byte[] contents = new byte[1000];
+        sut.writeFile("batched", contents.length, 0, ByteBuffer.wrap(contents));
+        assertEquals(0, backend.batches);
+
+        sut.flush();
+        assertEquals(1, backend.batches);
+        assertEquals(14, backend.countContainers());
+
+        sut.flush();
+        assertEquals(1, backend.batches);
+    }
+
+    private byte[] readWholeFile(String path, int size) throws TooManyErasedLocations {
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        sut.readFile(path, size, 0, buffer);
+        return buffer.array();
+    }
+
+    private static class CountingBackend extends MemoryStorageBackend {
+        int batches;
+
+        @Override
+        protected void storeAggregatedBlocks(Long2ObjectMap<byte[]> aggregatedBlocks) {
+            batches++;
+            super.storeAggregatedBlocks(aggregatedBlocks);
+        }
+
+        int countContainers() {
+            return blocksStorage.size();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package ch.unine.vauchers.erasuretester.erasure;
 
+import ch.unine.vauchers.erasuretester.backend.BlockKeyList;
 import ch.unine.vauchers.erasuretester.backend.MemoryStorageBackend;
 import ch.unine.vauchers.erasuretester.backend.StorageBackend;
 import ch.unine.vauchers.erasuretester.erasure.codes.*;
@@ -11,13 +12,13 @@ import org.junit.runners.Parameterized;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Optional;
 
 /**
  *
  */
 @RunWith(Parameterized.class)
 public class FileRepairTest {
+    private static final long FAULTY_KEY = Integer.MAX_VALUE;
     private FileEncoderDecoder fed;
     private Mode mode;
     private final int stripeSize;
@@ -61,7 +62,7 @@ public class FileRepairTest {
         backend.clearReadCache();
         this.mode = Mode.REPAIRED;
 
-        Assert.assertTrue(backend.getFileMetadata(filepath).get().getBlockKeys().get().parallelStream().noneMatch(key -> key == Integer.MAX_VALUE));
+        Assert.assertFalse(containsKey(backend.getFileMetadata(filepath).get().getBlockKeys().get(), FAULTY_KEY));
 
         final ByteBuffer out = ByteBuffer.allocate(dataLength);
         fed.readFile(filepath, dataLength, 0, out);
@@ -97,7 +98,7 @@ public class FileRepairTest {
 
         for (int i = 0; i < nbFiles; i++) {
             final String filepath = filepaths[i];
-            Assert.assertTrue(backend.getFileMetadata(filepath).get().getBlockKeys().get().parallelStream().noneMatch(key -> key == Integer.MAX_VALUE));
+            Assert.assertFalse(containsKey(backend.getFileMetadata(filepath).get().getBlockKeys().get(), FAULTY_KEY));
 
             final ByteBuffer out = ByteBuffer.allocate(data2.length);
             fed.readFile(filepath, data2.length, 0, out);
@@ -109,6 +110,236 @@ public class FileRepairTest {
         }
     }
 
+    @Test
+    public void testParallelRepair() throws TooManyErasedLocations {
+        final int nbFiles = 100;
+        final byte[][] data = new byte[nbFiles][];
+        final String[] filepaths = new String[nbFiles];
+        for (int i = 0; i < nbFiles; i++) {
+            data[i] = FileEncoderDecoderTestUtils.createRandomBigByteBuffer();
+            filepaths[i] = FileEncoderDecoderTestUtils.generateRandomPath();
+        }
+
+        this.mode = Mode.FAULTY;
+        for (int i = 0; i < nbFiles; i++) {
+            fed.writeFile(filepaths[i], data[i].length, 0, ByteBuffer.wrap(data[i].clone()));
+        }
+        backend.clearReadCache();
+        this.mode = Mode.REPAIRING;
+        fed.setRepairConcurrency(4);
+        fed.repairAllFiles();
+        backend.clearReadCache();
+        this.mode = Mode.REPAIRED;
+
+        final RepairStatistics statistics = fed.getRepairStatistics();
+        Assert.assertFalse(statistics.isRepairing());
+        Assert.assertEquals(statistics.getStripesToCheck(), statistics.getStripesChecked());
+        Assert.assertEquals(statistics.getStripesChecked(), statistics.getStripesRepaired());
+        Assert.assertEquals(0, statistics.getStripesUnrepairable());
+
+        for (int i = 0; i < nbFiles; i++) {
+            Assert.assertFalse(containsKey(backend.getFileMetadata(filepaths[i]).get().getBlockKeys().get(), FAULTY_KEY));
+
+            final ByteBuffer out = ByteBuffer.allocate(data[i].length);
+            fed.readFile(filepaths[i], data[i].length, 0, out);
+            Assert.assertArrayEquals(data[i], out.array());
+        }
+    }
+
+    @Test
+    public void testRepairLostContainers() throws TooManyErasedLocations {
+        final int nbFiles = 10;
+        final byte[][] data = new byte[nbFiles][];
+        final String[] filepaths = new String[nbFiles];
+        this.mode = Mode.REPAIRING;
+        for (int i = 0; i < nbFiles; i++) {
+            data[i] = FileEncoderDecoderTestUtils.createRandomBigByteBuffer();
+            filepaths[i] = FileEncoderDecoderTestUtils.generateRandomPath();
+            fed.writeFile(filepaths[i], data[i].length, 0, ByteBuffer.wrap(data[i].clone()));
+        }
+        backend.flushAll();
+
+        final long lostKey = backend.getFileMetadata(filepaths[0]).get().getBlockKeys().get().getKey(0, paritySize);
+        final long lostContainer = lostKey / backend.getBlocksPerContainer();
+        // The availability index still believes the container available
+        ((SpecialBackend) backend).loseContainer(lostContainer);
+
+        fed.getRepairStatistics().reset();
+        fed.repairLostContainers();
+        backend.clearReadCache();
+        this.mode = Mode.REPAIRED;
+
+        final RepairStatistics statistics = fed.getRepairStatistics();
+        Assert.assertTrue(statistics.getStripesRepaired() > 0);
+        Assert.assertTrue(statistics.getStripesChecked() <= backend.getBlocksPerContainer());
+        Assert.assertEquals(0, statistics.getStripesUnrepairable());
+
+        for (int i = 0; i < nbFiles; i++) {
+            final BlockKeyList blockKeys = backend.getFileMetadata(filepaths[i]).get().getBlockKeys().get();
+            for (int stripe = 0; stripe < blockKeys.getNbStripes(); stripe++) {
+                for (int position = 0; position < blockKeys.getTotalSize(); position++) {
+                    Assert.assertNotEquals(lostContainer, blockKeys.getKey(stripe, position) / backend.getBlocksPerContainer());
+                }
+            }
+
+            final ByteBuffer out = ByteBuffer.allocate(data[i].length);
+            fed.readFile(filepaths[i], data[i].length, 0, out);
+            Assert.assertArrayEquals(data[i], out.array());
+        }
+    }
+
+    @Test
+    public void testContainerLostAfterWrite() throws TooManyErasedLocations {
+        final byte[] data = FileEncoderDecoderTestUtils.createRandomBigByteBuffer();
+        final String filepath = FileEncoderDecoderTestUtils.generateRandomPath();
+        this.mode = Mode.REPAIRING;
+        fed.writeFile(filepath, data.length, 0, ByteBuffer.wrap(data.clone()));
+        backend.flushAll();
+
+        // The availability index still believes the container available
+        final long lostKey = backend.getFileMetadata(filepath).get().getBlockKeys().get().getKey(0, paritySize);
+        ((SpecialBackend) backend).loseContainer(lostKey / backend.getBlocksPerContainer());
+        Assert.assertTrue(fed.queueDamagedStripes() > 0);
+
+        fed.getRepairStatistics().reset();
+        fed.repairAllFiles();
+        Assert.assertTrue(fed.getRepairStatistics().getStripesRepaired() > 0);
+        backend.clearReadCache();
+        this.mode = Mode.REPAIRED;
+
+        final ByteBuffer out = ByteBuffer.allocate(data.length);
+        fed.readFile(filepath, data.length, 0, out);
+        Assert.assertArrayEquals(data, out.array());
+    }
+
+    @Test
+    public void testPriorityRepair() throws TooManyErasedLocations, InterruptedException {
+        final int nbFiles = 3;
+        final byte[][] data = new byte[nbFiles][];
+        final String[] filepaths = new String[nbFiles];
+        this.mode = Mode.FAULTY;
+        for (int i = 0; i < nbFiles; i++) {
+            data[i] = FileEncoderDecoderTestUtils.createRandomBigByteBuffer();
+            filepaths[i] = FileEncoderDecoderTestUtils.generateRandomPath();
+            fed.writeFile(filepaths[i], data[i].length, 0, ByteBuffer.wrap(data[i].clone()));
+        }
+        backend.clearReadCache();
+        this.mode = Mode.REPAIRING;
+        fed.getRepairStatistics().reset();
+        fed.setRepairConcurrency(2);
+        fed.enablePriorityRepair();
+
+        // Degraded reads queue the stripes
+        for (int i = 0; i < nbFiles; i++) {
+            final ByteBuffer out = ByteBuffer.allocate(data[i].length);
+            fed.readFile(filepaths[i], data[i].length, 0, out);
+            Assert.assertArrayEquals(data[i], out.array());
+        }
+        final RepairQueue queue = fed.getRepairQueue();
+        Assert.assertTrue(queue.getStripesQueued() > 0);
+
+        final long deadline = System.currentTimeMillis() + 30000;
+        while (fed.getRepairStatistics().getStripesRepaired() < queue.getStripesQueued()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        fed.close();
+        backend.clearReadCache();
+        this.mode = Mode.REPAIRED;
+
+        Assert.assertEquals(0, queue.getDepth());
+        Assert.assertEquals(queue.getStripesQueued(), fed.getRepairStatistics().getStripesRepaired());
+        for (int i = 0; i < nbFiles; i++) {
+            Assert.assertFalse(containsKey(backend.getFileMetadata(filepaths[i]).get().getBlockKeys().get(), FAULTY_KEY));
+
+            final ByteBuffer out = ByteBuffer.allocate(data[i].length);
+            fed.readFile(filepaths[i], data[i].length, 0, out);
+            Assert.assertArrayEquals(data[i], out.array());
+        }
+    }
+
+    @Test
+    public void testReadRepair() throws TooManyErasedLocations {
+        final byte[] data = FileEncoderDecoderTestUtils.createRandomBigByteBuffer();
+        final String filepath = FileEncoderDecoderTestUtils.generateRandomPath();
+
+        this.mode = Mode.FAULTY;
+        fed.writeFile(filepath, data.length, 0, ByteBuffer.wrap(data.clone()));
+        backend.clearReadCache();
+        this.mode = Mode.REPAIRING;
+        fed.getRepairStatistics().reset();
+        final int nbStripes = backend.getFileMetadata(filepath).get().getBlockKeys().get().getNbStripes();
+
+        // The stripes read while too many are waiting are not repaired, and are repaired by the next reads
+        for (int i = 0; i < 100 && fed.getRepairStatistics().getStripesReadRepaired() < nbStripes; i++) {
+            fed.enableReadRepair();
+            final ByteBuffer degraded = ByteBuffer.allocate(data.length);
+            fed.readFile(filepath, data.length, 0, degraded);
+            Assert.assertArrayEquals(data, degraded.array());
+            // Waits for the decoded blocks to be stored
+            fed.close();
+            backend.clearReadCache();
+        }
+        this.mode = Mode.REPAIRED;
+
+        final BlockKeyList blockKeys = backend.getFileMetadata(filepath).get().getBlockKeys().get();
+        Assert.assertEquals(nbStripes, fed.getRepairStatistics().getStripesReadRepaired());
+        for (int stripe = 0; stripe < blockKeys.getNbStripes(); stripe++) {
+            for (int position = paritySize; position < blockKeys.getTotalSize(); position++) {
+                Assert.assertNotEquals(FAULTY_KEY, blockKeys.getKey(stripe, position));
+            }
+        }
+
+        // The data positions are intact again, so the parity positions are not read
+        final ByteBuffer out = ByteBuffer.allocate(data.length);
+        fed.readFile(filepath, data.length, 0, out);
+        Assert.assertArrayEquals(data, out.array());
+    }
+
+    @Test
+    public void testDecodedStripeCache() throws TooManyErasedLocations {
+        final byte[] data = FileEncoderDecoderTestUtils.createRandomBigByteBuffer();
+        final String filepath = FileEncoderDecoderTestUtils.generateRandomPath();
+
+        this.mode = Mode.FAULTY;
+        fed.writeFile(filepath, data.length, 0, ByteBuffer.wrap(data.clone()));
+        backend.clearReadCache();
+        fed.enableDecodedStripeCache(4L * data.length);
+        this.mode = Mode.REPAIRING;
+
+        final ByteBuffer degraded = ByteBuffer.allocate(data.length);
+        fed.readFile(filepath, data.length, 0, degraded);
+        Assert.assertArrayEquals(data, degraded.array());
+        Assert.assertEquals(0, fed.getDecodedStripeCacheStatistics().getHits());
+
+        // Served from the cache, without reading the parity positions again
+        this.mode = Mode.REPAIRED;
+        final ByteBuffer cached = ByteBuffer.allocate(data.length);
+        fed.readFile(filepath, data.length, 0, cached);
+        Assert.assertArrayEquals(data, cached.array());
+        Assert.assertTrue(fed.getDecodedStripeCacheStatistics().getHits() > 0);
+
+        // Overwritten stripes are read again
+        this.mode = Mode.REPAIRING;
+        final byte[] overwrite = FileEncoderDecoderTestUtils.createRandomBigByteBuffer();
+        System.arraycopy(overwrite, 0, data, 100, 1000);
+        fed.writeFile(filepath, 1000, 100, ByteBuffer.wrap(overwrite, 0, 1000));
+        final ByteBuffer out = ByteBuffer.allocate(data.length);
+        fed.readFile(filepath, data.length, 0, out);
+        Assert.assertArrayEquals(data, out.array());
+    }
+
+    private static boolean containsKey(BlockKeyList blockKeys, long key) {
+        for (int stripe = 0; stripe < blockKeys.getNbStripes(); stripe++) {
+            for (int position = 0; position < blockKeys.getTotalSize(); position++) {
+                if (blockKeys.getKey(stripe, position) == key) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private enum Mode {
         FAULTY, REPAIRING, REPAIRED
     }
@@ -116,27 +347,31 @@ public class FileRepairTest {
     private class SpecialBackend extends MemoryStorageBackend {
 
         @Override
-        public int storeBlock(int blockData, int position) {
+        public synchronized long storeBlock(byte[] blocks, int offset, int position) {
             if (mode == Mode.FAULTY) {
                 if (isPositionFaulty(position)) {
                     // There should not be any value at that key
-                    return Integer.MAX_VALUE;
+                    return FAULTY_KEY;
                 }
             }
-            return super.storeBlock(blockData, position);
+            return super.storeBlock(blocks, offset, position);
         }
 
         @Override
-        public Optional<Integer> retrieveBlock(int key) {
+        public boolean retrieveBlock(long key, byte[] dest, int offset) {
             if (mode == Mode.REPAIRED) {
                 final int position = computePositionWithBlockKey(key);
                 // After repair, reading the parity is forbidden
                 if (position < paritySize) {
                     Assert.fail("A parity block has been read after repair");
-                    return Optional.empty();
+                    return false;
                 }
             }
-            return super.retrieveBlock(key);
+            return super.retrieveBlock(key, dest, offset);
+        }
+
+        private void loseContainer(long redisKey) {
+            blocksStorage.remove(redisKey);
         }
 
         private boolean isPositionFaulty(int position) {
@@ -0,0 +1,127 @@
+package ch.unine.vauchers.erasuretester.erasure;
+
+import ch.unine.vauchers.erasuretester.backend.MemoryStorageBackend;
+import ch.unine.vauchers.erasuretester.erasure.codes.ReedSolomonCode;
+import ch.unine.vauchers.erasuretester.erasure.codes.TooManyErasedLocations;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ReadAheadTest {
+    private static final int READ_SIZE = 4096;
+
+    private CountingBackend backend;
+    private RecordingFileEncoderDecoder sut;
+    private ReadAhead readAhead;
+
+    @Before
+    public void setup() {
+        backend = new CountingBackend();
+        sut = new RecordingFileEncoderDecoder(backend);
+        // Recent containers take a fifth of the cache, and the window may use half of them
+        backend.setReadCacheCapacity(20 * sut.getReadAheadMinWindow());
+        readAhead = sut.newReadAhead();
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        readAhead.onRead("file", 0, READ_SIZE);
+        readAhead.onRead("file", READ_SIZE, READ_SIZE);
+        assertEquals(0, sut.prefetches.size());
+    }
+
+    @Test
+    public void testWindowGrowsWithSequentialReads() {
+        sut.enableReadAhead(Long.MAX_VALUE);
+        final long minWindow = sut.getReadAheadMinWindow();
+        final long maxWindow = sut.getReadAheadMaxWindow();
+        assertEquals(2 * minWindow, maxWindow);
+
+        readAhead.onRead("file", 0, READ_SIZE);
+        assertEquals(0, sut.prefetches.size());
+
+        readAhead.onRead("file", READ_SIZE, READ_SIZE);
+        assertEquals(1, sut.prefetches.size());
+        assertArrayEquals(new long[]{2 * READ_SIZE, minWindow}, sut.prefetches.get(0));
+
+        // The window doubles, only the part that has not been prefetched yet is requested
+        readAhead.onRead("file", 2 * READ_SIZE, READ_SIZE);
+        assertArrayEquals(new long[]{2 * READ_SIZE + minWindow, 2 * minWindow - minWindow + READ_SIZE}, sut.prefetches.get(1));
+
+        // The window is capped
+        readAhead.onRead("file", 3 * READ_SIZE, READ_SIZE);
+        assertArrayEquals(new long[]{3 * READ_SIZE + 2 * minWindow, READ_SIZE}, sut.prefetches.get(2));
+        assertEquals(4 * READ_SIZE + maxWindow, sum(sut.prefetches.get(2)));
+    }
+
+    @Test
+    public void testRandomReadClosesTheWindow() {
+        sut.enableReadAhead(Long.MAX_VALUE);
+        readAhead.onRead("file", 0, READ_SIZE);
+        readAhead.onRead("file", READ_SIZE, READ_SIZE);
+        readAhead.onRead("file", 10 * READ_SIZE, READ_SIZE);
+        assertEquals(1, sut.prefetches.size());
+
+        readAhead.onRead("file", 11 * READ_SIZE, READ_SIZE);
+        assertEquals(2, sut.prefetches.size());
+        assertArrayEquals(new long[]{12 * READ_SIZE, sut.getReadAheadMinWindow()}, sut.prefetches.get(1));
+    }
+
+    @Test
+    public void testLimit() {
+        sut.enableReadAhead(READ_SIZE);
+        assertEquals(READ_SIZE, sut.getReadAheadMaxWindow());
+    }
+
+    @Test
+    public void testPrefetchFillsTheReadCache() throws TooManyErasedLocations {
+        final byte[] contents = new byte[(int) sut.getReadAheadMinWindow()];
+        FileEncoderDecoderTestUtils.random.nextBytes(contents);
+        sut.writeFile("prefetched", contents.length, 0, ByteBuffer.wrap(contents));
+        backend.clearReadCache();
+
+        sut.prefetch("prefetched", 0, contents.length);
+        final int fetches = backend.fetches;
+        assertEquals(10, fetches);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(contents.length);
+        sut.readFile("prefetched", contents.length, 0, buffer);
+        assertArrayEquals(contents, buffer.array());
+        assertEquals(fetches, backend.fetches);
+    }
+
+    private static long sum(long[] range) {
+        return range[0] + range[1];
+    }
+
+    private static class RecordingFileEncoderDecoder extends FileEncoderDecoder {
+        final List<long[]> prefetches = new ArrayList<>();
+
+        RecordingFileEncoderDecoder(MemoryStorageBackend backend) {
+            super(new ReedSolomonCode(10, 4), backend, 16);
+        }
+
+        @Override
+        public void prefetch(String path, long offset, long length) {
+            prefetches.add(new long[]{offset, length});
+            super.prefetch(path, offset, length);
+        }
+    }
+
+    private static class CountingBackend extends MemoryStorageBackend {
+        volatile int fetches;
+
+        @Override
+        public Optional<byte[]> retrieveAggregatedBlocks(long key) {
+            fetches++;
+            return super.retrieveAggregatedBlocks(key);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ch.unine.vauchers.erasuretester.erasure;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RepairQueueTest {
+    private RepairQueue sut;
+
+    @Before
+    public void setup() {
+        sut = new RepairQueue();
+    }
+
+    @Test
+    public void testRiskFirst() throws InterruptedException {
+        assertTrue(sut.offer("a", 0, 2));
+        assertTrue(sut.offer("b", 0, 0));
+        assertTrue(sut.offer("c", 0, 1));
+        assertEquals(3, sut.getDepth());
+        assertEquals(1, sut.getCriticalDepth());
+
+        assertEquals("b", sut.take().path);
+        assertEquals("c", sut.take().path);
+        assertEquals("a", sut.take().path);
+        assertEquals(0, sut.getDepth());
+        assertEquals(0, sut.getOldestAgeMillis());
+    }
+
+    @Test
+    public void testHottestFirst() throws InterruptedException {
+        sut.offer("a", 0, 1);
+        sut.offer("a", 1, 1);
+        sut.offer("a", 2, 1);
+        sut.touch("a", 2);
+        sut.touch("a", 2);
+        sut.touch("a", 1);
+        // Not queued
+        sut.touch("a", 3);
+
+        assertEquals(2, sut.take().stripe);
+        assertEquals(1, sut.take().stripe);
+        assertEquals(0, sut.take().stripe);
+    }
+
+    @Test
+    public void testQueuedAgain() throws InterruptedException {
+        sut.offer("a", 0, 1);
+        sut.offer("a", 1, 1);
+        assertFalse(sut.offer("a", 1, 2));
+        assertEquals(0, sut.take().stripe);
+
+        sut.offer("a", 2, 1);
+        assertFalse(sut.offer("a", 2, 0));
+        assertEquals(2, sut.take().stripe);
+        assertEquals(1, sut.take().stripe);
+
+        assertEquals(3, sut.getStripesQueued());
+        assertEquals(3, sut.getStripesDequeued());
+    }
+}
@@ -0,0 +1,113 @@
+package ch.unine.vauchers.erasuretester.erasure.codes;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Hammer a single erasure code instance from many threads, and check every result.
+ */
+@RunWith(Parameterized.class)
+public class ErasureCodeConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 5000;
+
+    private final ErasureCodeInstance sutWrapper;
+    private final ErasureCode sut;
+
+    public ErasureCodeConcurrencyTest(ErasureCodeInstance sutWrapper) {
+        this.sutWrapper = sutWrapper;
+        this.sut = sutWrapper.newSut();
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> parameters() {
+        return Arrays.stream(new ErasureCodeInstance[]{
+                new XORErasureCodeInstance(),
+                new ReedSolomonErasureCodeInstance(),
+                new ReedSolomonMatrixErasureCodeInstance(),
+                new SimpleRegeneratingErasureCodeInstance()
+        }).map(instance -> new Object[]{instance}).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testConcurrentEncodeDecode() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<?>> futures = new ArrayList<>(THREADS);
+            for (int t = 0; t < THREADS; t++) {
+                final long seed = 9823749827L + t;
+                futures.add(executor.submit(() -> {
+                    hammer(new Random(seed));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void hammer(Random random) {
+        final int stripeSize = sutWrapper.getStripeSize();
+        final int paritySize = sutWrapper.getParitySize();
+        final int totalSize = stripeSize + paritySize;
+        final int[] message = new int[stripeSize];
+        final int[] parity = new int[paritySize];
+        final int[] expectedParity = new int[paritySize];
+        final ErasureCode reference = sutWrapper.newSut();
+
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            for (int i = 0; i < stripeSize; i++) {
+                message[i] = random.nextInt(256);
+            }
+            sut.encode(message, parity);
+            reference.encode(message, expectedParity);
+            Assert.assertArrayEquals(expectedParity, parity);
+
+            final int[] codeword = new int[totalSize];
+            System.arraycopy(parity, 0, codeword, 0, paritySize);
+            System.arraycopy(message, 0, codeword, paritySize, stripeSize);
+
+            final int[] erasures = random.ints(0, totalSize).distinct()
+                    .limit(1 + random.nextInt(sutWrapper.getMaxErasures())).toArray();
+            final IntList toRead;
+            try {
+                toRead = sut.locationsToReadForDecode(Arrays.stream(erasures).boxed().collect(Collectors.toList()));
+            } catch (TooManyErasedLocations e) {
+                continue;
+            }
+            toRead.sort(null);
+
+            final int[] data = new int[totalSize];
+            final IntList notToRead = new IntArrayList();
+            for (int i = 0; i < totalSize; i++) {
+                if (toRead.contains(i)) {
+                    data[i] = codeword[i];
+                } else {
+                    notToRead.add(i);
+                }
+            }
+            final int[] recovered = new int[erasures.length];
+            sut.decode(data, erasures, recovered, toRead.toIntArray(), notToRead.toIntArray());
+            for (int i = 0; i < erasures.length; i++) {
+                Assert.assertEquals(codeword[erasures[i]], recovered[i]);
+            }
+        }
+    }
+}
@@ -42,6 +42,7 @@ public class ErasureCodeTest {
         return Arrays.stream(new ErasureCodeInstance[]{
                 new XORErasureCodeInstance(),
                 new ReedSolomonErasureCodeInstance(),
+                new ReedSolomonMatrixErasureCodeInstance(),
                 new SimpleRegeneratingErasureCodeInstance()
         }).flatMap(erasureCodeInstance ->
                 IntStream.rangeClosed(0, erasureCodeInstance.getStripeSize() + erasureCodeInstance.getParitySize())
@@ -0,0 +1,88 @@
+package ch.unine.vauchers.erasuretester.erasure.codes;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class GaloisFieldTest {
+    private static final Random random = new Random(2304987234L);
+    private final GaloisField sut = GaloisField.getInstance();
+
+    @Test
+    public void testMultiplyDivide() {
+        for (int x = 0; x < 256; x++) {
+            for (int y = 0; y < 256; y++) {
+                final int product = sut.multiply(x, y);
+                Assert.assertEquals("x=" + x + " y=" + y, slowMultiply(x, y), product);
+                if (y != 0) {
+                    Assert.assertEquals("x=" + x + " y=" + y, x, sut.divide(product, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBulkRemainder() {
+        final int[] divisor = sut.multiply(new int[]{1, 1}, new int[]{2, 1});
+        final int[][] polynomials = randomPolynomials(12, 100);
+        final byte[][] bulk = toBulk(polynomials);
+
+        sut.remainder(bulk, divisor);
+
+        for (int k = 0; k < polynomials.length; k++) {
+            sut.remainder(polynomials[k], divisor);
+            for (int i = 0; i < polynomials[k].length; i++) {
+                Assert.assertEquals(polynomials[k][i], bulk[i][k] & 0xFF);
+            }
+        }
+    }
+
+    @Test
+    public void testBulkSubstitute() {
+        final int[][] polynomials = randomPolynomials(14, 100);
+        final byte[][] bulk = toBulk(polynomials);
+        final byte[] results = new byte[polynomials.length];
+
+        sut.substitute(bulk, results, 29);
+
+        for (int k = 0; k < polynomials.length; k++) {
+            Assert.assertEquals(sut.substitute(polynomials[k], 29), results[k] & 0xFF);
+        }
+    }
+
+    private static int slowMultiply(int x, int y) {
+        int result = 0;
+        while (y != 0) {
+            if ((y & 1) != 0) {
+                result ^= x;
+            }
+            x <<= 1;
+            if (x >= 256) {
+                x ^= 285;
+            }
+            y >>= 1;
+        }
+        return result;
+    }
+
+    private static int[][] randomPolynomials(int degree, int amount) {
+        final int[][] polynomials = new int[amount][degree];
+        for (int[] polynomial : polynomials) {
+            for (int i = 0; i < degree; i++) {
+                polynomial[i] = random.nextInt(256);
+            }
+        }
+        return polynomials;
+    }
+
+    private static byte[][] toBulk(int[][] polynomials) {
+        final byte[][] bulk = new byte[polynomials[0].length][polynomials.length];
+        for (int k = 0; k < polynomials.length; k++) {
+            for (int i = 0; i < polynomials[k].length; i++) {
+                bulk[i][k] = (byte) polynomials[k][i];
+            }
+        }
+        return bulk;
+    }
+}
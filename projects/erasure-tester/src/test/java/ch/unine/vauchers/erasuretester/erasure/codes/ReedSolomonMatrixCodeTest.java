@@ -0,0 +1,68 @@
+package ch.unine.vauchers.erasuretester.erasure.codes;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class ReedSolomonMatrixCodeTest {
+    private static final Random random = new Random(7823462873L);
+    private final ReedSolomonCode reference = new ReedSolomonCode(10, 4);
+    private final ReedSolomonMatrixCode sut = new ReedSolomonMatrixCode(10, 4);
+
+    @Test
+    public void testSameParityAsReedSolomon() {
+        final int[] message = new int[10];
+        final int[] expected = new int[4];
+        final int[] actual = new int[4];
+        for (int iteration = 0; iteration < 1000; iteration++) {
+            for (int i = 0; i < message.length; i++) {
+                message[i] = random.nextInt(256);
+            }
+            reference.encode(message, expected);
+            sut.encode(message, actual);
+            Assert.assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testSameBulkParityAsReedSolomon() {
+        final byte[][] inputs = new byte[10][1000];
+        final byte[][] inputsCopy = new byte[10][];
+        for (int i = 0; i < inputs.length; i++) {
+            random.nextBytes(inputs[i]);
+            inputsCopy[i] = inputs[i].clone();
+        }
+        final byte[][] expected = new byte[4][1000];
+        final byte[][] actual = new byte[4][1000];
+
+        sut.encodeBulk(inputs, actual);
+        Assert.assertArrayEquals("The inputs must not be modified", inputsCopy, inputs);
+        reference.encodeBulk(inputs, expected);
+        Assert.assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testDecodeBulk() {
+        final byte[][] data = new byte[14][1000];
+        for (int i = 4; i < data.length; i++) {
+            random.nextBytes(data[i]);
+        }
+        final byte[][] parity = new byte[4][];
+        System.arraycopy(data, 0, parity, 0, 4);
+        final byte[][] message = new byte[10][];
+        System.arraycopy(data, 4, message, 0, 10);
+        sut.encodeBulk(message, parity);
+
+        final int[] erased = {1, 6, 9};
+        final int[] toRead = {0, 2, 3, 4, 5, 7, 8, 10, 11, 12};
+        final int[] notToRead = {1, 6, 9, 13};
+        for (int iteration = 0; iteration < 2; iteration++) { // Second iteration hits the cache
+            final byte[][] recovered = new byte[erased.length][1000];
+            sut.decodeBulk(data, recovered, erased, toRead, notToRead);
+            for (int i = 0; i < erased.length; i++) {
+                Assert.assertArrayEquals(data[erased[i]], recovered[i]);
+            }
+        }
+    }
+}
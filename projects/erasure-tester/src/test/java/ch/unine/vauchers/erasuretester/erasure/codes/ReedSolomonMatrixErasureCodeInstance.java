@@ -0,0 +1,17 @@
+package ch.unine.vauchers.erasuretester.erasure.codes;
+
+/**
+ *
+ */
+public class ReedSolomonMatrixErasureCodeInstance extends ReedSolomonErasureCodeInstance {
+
+    @Override
+    protected ReedSolomonMatrixCode newSut() {
+        return new ReedSolomonMatrixCode(getStripeSize(), getParitySize());
+    }
+
+    @Override
+    public String toString() {
+        return "ReedSolomonMatrix";
+    }
+}